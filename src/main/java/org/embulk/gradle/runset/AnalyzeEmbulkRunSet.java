@@ -0,0 +1,180 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * A Gradle task to analyze the footprint of the resolved run set.
+ *
+ * <p>It reports the size of each plugin's classpath, the size of each module, and the modules installed in multiple versions.
+ * For each of such modules, it suggests an {@code align} line for {@code installEmbulkRunSet} to install only its latest version.
+ * The alignments are not applied automatically as plugins may not work with other versions of their dependencies.
+ */
+public abstract class AnalyzeEmbulkRunSet extends DefaultTask {
+    public AnalyzeEmbulkRunSet() {
+        this.getOutputs().upToDateWhen(task -> false);
+    }
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    /**
+     * Sets the resolved artifacts, and the classpath of each plugin, from {@code installEmbulkRunSet}.
+     */
+    void setResolution(final Provider<List<RunSetArtifact>> artifacts, final Provider<Map<String, List<RunSetArtifact>>> classpaths) {
+        this.artifacts = artifacts;
+        this.classpaths = classpaths;
+    }
+
+    @TaskAction
+    public void analyze() {
+        final List<String> lines = analyze(this.artifacts.get(), this.classpaths.get());
+        final Path reportPath = this.getReportFile().get().getAsFile().toPath();
+        try {
+            Files.createDirectories(reportPath.toAbsolutePath().getParent());
+            Files.write(reportPath, lines, StandardCharsets.UTF_8);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        for (final String line : lines) {
+            this.getLogger().lifecycle(line);
+        }
+    }
+
+    static List<String> analyze(final List<RunSetArtifact> artifacts, final Map<String, List<RunSetArtifact>> classpaths) {
+        final ArrayList<String> lines = new ArrayList<>();
+
+        // Sizes of the JAR files, deduplicated by their paths in embulkHome.
+        final TreeMap<String, RunSetArtifact> jars = new TreeMap<>();
+        long totalSize = 0;
+        final HashSet<String> paths = new HashSet<>();
+        for (final RunSetArtifact artifact : artifacts) {
+            if (!paths.add(artifact.getPathFromHome())) {
+                continue;
+            }
+            totalSize += artifact.getFile().length();
+            if (artifact.getType().equals("jar")) {
+                jars.put(artifact.getPathFromHome(), artifact);
+            }
+        }
+        lines.add(String.format(Locale.ENGLISH, "Run set: %d files, %s in total.", paths.size(), formatBytes(totalSize)));
+
+        final HashMap<String, TreeSet<String>> pluginsByCoordinates = new HashMap<>();
+        for (final Map.Entry<String, List<RunSetArtifact>> classpath : classpaths.entrySet()) {
+            for (final RunSetArtifact artifact : classpath.getValue()) {
+                pluginsByCoordinates.computeIfAbsent(artifact.getCoordinates(), coordinates -> new TreeSet<>()).add(classpath.getKey());
+            }
+        }
+
+        lines.add("");
+        lines.add("Plugins:");
+        for (final Map.Entry<String, List<RunSetArtifact>> classpath : new TreeMap<>(classpaths).entrySet()) {
+            long classpathSize = 0;
+            long exclusiveSize = 0;
+            for (final RunSetArtifact artifact : classpath.getValue()) {
+                final long size = artifact.getFile().length();
+                classpathSize += size;
+                if (pluginsByCoordinates.get(artifact.getCoordinates()).size() == 1) {
+                    exclusiveSize += size;
+                }
+            }
+            lines.add(String.format(Locale.ENGLISH, "  %s: %d JARs, %s (%s only for the plugin)",
+                    classpath.getKey(), classpath.getValue().size(), formatBytes(classpathSize), formatBytes(exclusiveSize)));
+        }
+
+        // Modules grouped by "group:module", each with its versions. Plugins themselves are included as their versions may conflict, too.
+        final TreeMap<String, TreeMap<String, Long>> versionsByModule = new TreeMap<>();
+        for (final RunSetArtifact jar : jars.values()) {
+            versionsByModule.computeIfAbsent(jar.getGroup() + ":" + jar.getModule(), module -> new TreeMap<>(MavenVersion.COMPARATOR))
+                    .merge(jar.getVersion(), jar.getFile().length(), Long::sum);
+        }
+        final ArrayList<Map.Entry<String, TreeMap<String, Long>>> modules = new ArrayList<>(versionsByModule.entrySet());
+        Collections.sort(modules, Comparator.comparingLong((Map.Entry<String, TreeMap<String, Long>> module) -> sum(module.getValue()))
+                .reversed()
+                .thenComparing(Map.Entry::getKey));
+
+        lines.add("");
+        lines.add("Modules:");
+        for (final Map.Entry<String, TreeMap<String, Long>> module : modules) {
+            final ArrayList<String> versions = new ArrayList<>();
+            for (final String version : module.getValue().keySet()) {
+                final TreeSet<String> plugins = pluginsByCoordinates.get(module.getKey() + ":" + version);
+                versions.add(version + " (used by " + (plugins == null ? 0 : plugins.size()) + ")");
+            }
+            lines.add(String.format(Locale.ENGLISH, "  %s: %s, %s",
+                    module.getKey(), formatBytes(sum(module.getValue())), String.join(", ", versions)));
+        }
+
+        lines.add("");
+        lines.add("Modules in multiple versions:");
+        int duplicated = 0;
+        for (final Map.Entry<String, TreeMap<String, Long>> module : modules) {
+            if (module.getValue().size() <= 1) {
+                continue;
+            }
+            duplicated++;
+            final String latest = module.getValue().lastKey();
+            final long redundant = sum(module.getValue()) - module.getValue().get(latest);
+            lines.add(String.format(Locale.ENGLISH, "  %s: %s, %s redundant",
+                    module.getKey(), String.join(", ", module.getValue().keySet()), formatBytes(redundant)));
+            lines.add(String.format(Locale.ENGLISH, "    align \"%s:%s\"", module.getKey(), latest));
+        }
+        if (duplicated == 0) {
+            lines.add("  (none)");
+        }
+        return lines;
+    }
+
+    private static long sum(final Map<String, Long> sizes) {
+        long sum = 0;
+        for (final long size : sizes.values()) {
+            sum += size;
+        }
+        return sum;
+    }
+
+    private static String formatBytes(final long bytes) {
+        if (bytes < 1024L * 1024L) {
+            return String.format(Locale.ENGLISH, "%.1f KiB", bytes / 1024.0);
+        }
+        return String.format(Locale.ENGLISH, "%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    private Provider<List<RunSetArtifact>> artifacts;
+
+    private Provider<Map<String, List<RunSetArtifact>>> classpaths;
+}
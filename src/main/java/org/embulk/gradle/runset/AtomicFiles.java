@@ -0,0 +1,131 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Writes files in the Embulk home atomically: into a temporary file in the same directory first, and then renames it to the target.
+ *
+ * <p>An interrupted install never leaves a partially written file under the target name. Renaming also replaces a link installed
+ * previously at the target, not the file linked from it. Temporary files left by a killed build are deleted by {@link #deleteTemporaryFiles}.
+ */
+final class AtomicFiles {
+    private AtomicFiles() {
+        // No instantiation.
+    }
+
+    /**
+     * Writes the content into the temporary file, which does not exist yet.
+     */
+    interface Writer {
+        void write(Path temporary) throws IOException;
+    }
+
+    /**
+     * Copies the file by {@link FileChannel#transferTo}, which the operating system may perform without copying bytes through the JVM.
+     */
+    static void copy(final Path source, final Path target) throws IOException {
+        write(target, temporary -> transfer(source, temporary));
+    }
+
+    static void write(final Path target, final Writer writer) throws IOException {
+        Files.createDirectories(target.getParent());
+        // The temporary file is created by the writer, not by Files.createTempFile, so that it has the default permissions, not 0600.
+        final Path temporary = target.resolveSibling(
+                "." + target.getFileName().toString() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + TEMPORARY_SUFFIX);
+        try {
+            writer.write(temporary);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Deletes the temporary files left in the directory, for example, by a build killed while installing.
+     */
+    static void deleteTemporaryFiles(final Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        final List<Path> temporaryFiles = new ArrayList<>();
+        try (final Stream<Path> files = Files.walk(dir)) {
+            files.filter(file -> isTemporaryFile(file) && Files.isRegularFile(file)).forEach(temporaryFiles::add);
+        }
+        for (final Path temporaryFile : temporaryFiles) {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Deletes the file, or the directory with all the files in it. A symbolic link is deleted, not the files linked from it.
+     */
+    static void deleteRecursively(final Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        final List<Path> paths = new ArrayList<>();
+        try (final Stream<Path> files = Files.walk(path)) {
+            files.forEach(paths::add);
+        }
+        // Deleting the children before their parents.
+        Collections.reverse(paths);
+        for (final Path file : paths) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static boolean isTemporaryFile(final Path file) {
+        final String name = file.getFileName().toString();
+        return name.startsWith(".") && name.endsWith(TEMPORARY_SUFFIX);
+    }
+
+    static void transfer(final Path source, final Path target) throws IOException {
+        try (final FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                final FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long size = in.size();
+            long position = 0;
+            // transferTo may transfer fewer bytes than requested, and transfers none at the end of the file.
+            while (position < size) {
+                final long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("\"" + source + "\" was truncated while being copied at " + position + " of " + size + " bytes.");
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    private static final String TEMPORARY_SUFFIX = ".embulk-runset-tmp";
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Installs an artifact file with Maven-style checksum sidecar files, {@code <file>.sha1} and {@code <file>.sha256}, next to it.
+ *
+ * <p>The checksums are calculated while the bytes are copied so that the file is read only once. When the artifact is installed
+ * as a link, the checksums are calculated by reading the source file once as nothing is copied.
+ */
+final class ChecksumSidecars {
+    private ChecksumSidecars() {
+        // No instantiation.
+    }
+
+    static void install(final InstallMode installMode, final Path source, final Path target) throws IOException {
+        final MessageDigest sha1 = newSha1();
+        final MessageDigest sha256 = RunSetManifest.newSha256();
+        final byte[] buffer = new byte[65536];
+
+        if (installMode == InstallMode.COPY) {
+            AtomicFiles.write(target, temporary -> {
+                try (final InputStream in = Files.newInputStream(source);
+                        final OutputStream out = Files.newOutputStream(temporary)) {
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        sha1.update(buffer, 0, read);
+                        sha256.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                    }
+                }
+            });
+        } else {
+            installMode.install(source, target);
+            try (final InputStream in = Files.newInputStream(source)) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    sha1.update(buffer, 0, read);
+                    sha256.update(buffer, 0, read);
+                }
+            }
+        }
+        write(target, sha1, sha256);
+    }
+
+    /**
+     * Writes the sidecar files of the target from the digests updated with the bytes of the target.
+     */
+    static void write(final Path target, final MessageDigest sha1, final MessageDigest sha256) throws IOException {
+        // Maven writes only the hexadecimal checksum without a trailing newline.
+        final byte[] sha1Bytes = RunSetManifest.toHex(sha1.digest()).getBytes(StandardCharsets.US_ASCII);
+        final byte[] sha256Bytes = RunSetManifest.toHex(sha256.digest()).getBytes(StandardCharsets.US_ASCII);
+        AtomicFiles.write(sidecar(target, SHA1_EXTENSION), temporary -> Files.write(temporary, sha1Bytes));
+        AtomicFiles.write(sidecar(target, SHA256_EXTENSION), temporary -> Files.write(temporary, sha256Bytes));
+    }
+
+    static boolean exist(final Path target) {
+        return Files.isRegularFile(sidecar(target, SHA1_EXTENSION)) && Files.isRegularFile(sidecar(target, SHA256_EXTENSION));
+    }
+
+    static void deleteIfExist(final Path target) throws IOException {
+        Files.deleteIfExists(sidecar(target, SHA1_EXTENSION));
+        Files.deleteIfExists(sidecar(target, SHA256_EXTENSION));
+    }
+
+    /**
+     * Returns the paths of the sidecar files of an artifact, both relative from the Embulk home separated by '/'.
+     */
+    static List<String> sidecarPaths(final String pathFromHome) {
+        return Arrays.asList(pathFromHome + "." + SHA1_EXTENSION, pathFromHome + "." + SHA256_EXTENSION);
+    }
+
+    private static Path sidecar(final Path target, final String extension) {
+        return target.resolveSibling(target.getFileName().toString() + "." + extension);
+    }
+
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-1 is unavailable in the JVM.", ex);
+        }
+    }
+
+    private static final String SHA1_EXTENSION = "sha1";
+
+    private static final String SHA256_EXTENSION = "sha256";
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+/**
+ * A Gradle task to create an AppCDS (Application Class Data Sharing) archive for the Embulk core and the installed plugins.
+ *
+ * <p>It runs the main class once with {@code -XX:ArchiveClassesAtExit}, which dumps the classes loaded in the run into a dynamic
+ * archive when the JVM exits. The archive has the classes of the Embulk core loaded from the classpath, and also the classes of
+ * the plugins loaded by Embulk from the Embulk home in their own class loaders. It finally writes a JVM argument file
+ * ({@code java @file}) into the Embulk home, which has {@code -XX:SharedArchiveFile} and the same classpath so that Embulk can
+ * start with the archive.
+ *
+ * <p>Only the Embulk core is on the classpath, so that the plugins are loaded in the same way as production runs.
+ *
+ * <p>It requires Java 13 or later to run. The archive works only with the same JVM, the same classpath, and the same plugin JAR files.
+ */
+public abstract class CreateEmbulkRunSetCds extends DefaultTask {
+    public CreateEmbulkRunSetCds() {
+        this.getMainClass().convention("org.embulk.cli.Main");
+        this.getTrainingArgs().convention(new ArrayList<>());
+        this.getExecutable().convention(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+        this.getArchiveFile().convention(this.getDestinationDirectory().file(ARCHIVE_FILE_NAME));
+        this.getJvmArgumentsFile().convention(this.getEmbulkHome().file(JVM_ARGUMENTS_FILE_NAME));
+    }
+
+    /**
+     * Returns the Embulk home. It is the {@code embulkHome} of {@code installEmbulkRunSet} by default.
+     */
+    @Internal
+    public abstract DirectoryProperty getEmbulkHome();
+
+    /**
+     * Returns the Embulk core JAR files to be archived, which are on the classpath. It has {@code org.embulk:embulk-core} of
+     * the version set by {@code embulkCore} of {@code installEmbulkRunSet} with its dependencies by default.
+     *
+     * <p>Do not add the plugin JAR files. Embulk would load the plugins from the classpath instead of their own class loaders.
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+
+    /**
+     * Returns the plugin JAR files installed in the Embulk home. They are inputs as the training run loads the plugins into the archive,
+     * but not on the classpath.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getPluginFiles();
+
+    /**
+     * Returns the main class to run for archiving the loaded classes. It is {@code org.embulk.cli.Main} by default.
+     */
+    @Input
+    public abstract Property<String> getMainClass();
+
+    /**
+     * Returns the arguments to run the main class with for archiving the loaded classes, for example, {@code ["run", "config.yml"]}.
+     */
+    @Input
+    public abstract ListProperty<String> getTrainingArgs();
+
+    /**
+     * Returns the {@code java} executable. It is the one running Gradle by default.
+     */
+    @Input
+    public abstract Property<String> getExecutable();
+
+    /**
+     * Returns the directory to write the archive into. It is {@code build/embulkRunSetCds} by default.
+     */
+    @Internal
+    public abstract DirectoryProperty getDestinationDirectory();
+
+    @OutputFile
+    public abstract RegularFileProperty getArchiveFile();
+
+    /**
+     * Returns the JVM argument file to use the archive. It is {@value #JVM_ARGUMENTS_FILE_NAME} in the Embulk home by default.
+     */
+    @OutputFile
+    public abstract RegularFileProperty getJvmArgumentsFile();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    @TaskAction
+    public void createCds() {
+        final ArrayList<String> classpath = new ArrayList<>();
+        for (final File file : this.getClasspath().getFiles()) {
+            if (file.isFile()) {
+                classpath.add(file.getAbsolutePath());
+            }
+        }
+        if (classpath.isEmpty()) {
+            throw new InvalidUserDataException(
+                    "No Embulk core JAR file is on the classpath of createEmbulkRunSetCds."
+                    + " Set embulkCore in installEmbulkRunSet, or add the JAR files into classpath.");
+        }
+        final String joinedClasspath = String.join(File.pathSeparator, classpath);
+        final File archiveFile = this.getArchiveFile().get().getAsFile().getAbsoluteFile();
+
+        final ArrayList<String> trainingArgs = new ArrayList<>();
+        trainingArgs.add("-XX:ArchiveClassesAtExit=" + archiveFile.getPath());
+        trainingArgs.add("-cp");
+        trainingArgs.add(joinedClasspath);
+        trainingArgs.add(this.getMainClass().get());
+        trainingArgs.addAll(this.getTrainingArgs().get());
+        this.getLogger().lifecycle("Archiving the classes loaded by {} into {}.", this.getMainClass().get(), archiveFile);
+        try {
+            Files.createDirectories(archiveFile.toPath().getParent());
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        this.exec(trainingArgs);
+
+        final ArrayList<String> jvmArguments = new ArrayList<>();
+        jvmArguments.add("-XX:SharedArchiveFile=" + archiveFile.getPath());
+        jvmArguments.add("-Xshare:auto");
+        jvmArguments.add("-cp");
+        jvmArguments.add(joinedClasspath);
+        try {
+            writeJvmArgumentsFile(this.getJvmArgumentsFile().get().getAsFile().toPath(), jvmArguments);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void exec(final List<String> args) {
+        this.getExecOperations().exec(spec -> {
+            spec.setExecutable(this.getExecutable().get());
+            spec.setArgs(args);
+            spec.environment("EMBULK_HOME", this.getEmbulkHome().get().getAsFile().getAbsolutePath());
+        });
+    }
+
+    /**
+     * Writes a JVM argument file, quoting every argument as {@code java @file} expects.
+     */
+    private static void writeJvmArgumentsFile(final Path path, final List<String> jvmArguments) throws IOException {
+        AtomicFiles.write(path, temporary -> {
+            try (final BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (final String argument : jvmArguments) {
+                    writer.write("\"" + argument.replace("\\", "\\\\").replace("\"", "\\\"") + "\"\n");
+                }
+            }
+        });
+    }
+
+    static final String ARCHIVE_FILE_NAME = "embulk.jsa";
+
+    static final String JVM_ARGUMENTS_FILE_NAME = "embulk-cds.args";
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes "embulk.properties" deterministically.
+ *
+ * <p>Unlike {@link java.util.Properties#store}, it sorts the keys, and it does not write a timestamp comment.
+ * The same properties are always written into the same bytes so that Gradle can consider the task up-to-date.
+ */
+final class EmbulkProperties {
+    private EmbulkProperties() {
+        // No instantiation.
+    }
+
+    static void write(final Path path, final Map<String, String> properties) throws IOException {
+        // It is written through a temporary file so that an Embulk job started meanwhile never reads a partially written file.
+        AtomicFiles.write(path, temporary -> {
+            try (final Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.ISO_8859_1)) {
+                writer.write("#Generated by the \"org.embulk.embulk-runset\" Gradle plugin.\n");
+                for (final Map.Entry<String, String> entry : new TreeMap<>(properties).entrySet()) {
+                    writer.write(escape(entry.getKey(), true));
+                    writer.write('=');
+                    writer.write(escape(entry.getValue(), false));
+                    writer.write('\n');
+                }
+            }
+        });
+    }
+
+    // https://github.com/openjdk/jdk8u/blob/jdk8u382-ga/jdk/src/share/classes/java/util/Properties.java#L550-L615
+    private static String escape(final String string, final boolean isKey) {
+        final StringBuilder builder = new StringBuilder(string.length() * 2);
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case ' ':
+                    if (i == 0 || isKey) {
+                        builder.append('\\');
+                    }
+                    builder.append(' ');
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\f':
+                    builder.append("\\f");
+                    break;
+                case '\\':
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    builder.append('\\').append(c);
+                    break;
+                default:
+                    if (c < 0x0020 || c > 0x007e) {
+                        builder.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.File;
+import javax.inject.Inject;
+import org.gradle.api.Action;
+import org.gradle.api.Named;
+import org.gradle.api.tasks.TaskProvider;
+
+/**
+ * A named run set declared in the {@code embulkRunSets} container.
+ *
+ * <p>Each run set is installed by its own {@link InstallEmbulkRunSet} task. The methods below configure the task lazily.
+ * The other options of the task can be configured by {@link #install(Action)}.
+ */
+public class EmbulkRunSet implements Named {
+    @Inject
+    public EmbulkRunSet(final String name, final TaskProvider<InstallEmbulkRunSet> installTask) {
+        this.name = name;
+        this.installTask = installTask;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the task to install the run set.
+     */
+    public TaskProvider<InstallEmbulkRunSet> getInstallTask() {
+        return this.installTask;
+    }
+
+    public void artifact(final Object dependencyNotation) {
+        this.installTask.configure(task -> task.artifact(dependencyNotation));
+    }
+
+    public void jruby(final Object dependencyNotation) {
+        this.installTask.configure(task -> task.jruby(dependencyNotation));
+    }
+
+    public void embulkHome(final File dir) {
+        this.installTask.configure(task -> task.embulkHome(dir));
+    }
+
+    public void embulkSystemProperty(final String key, final String value) {
+        this.installTask.configure(task -> task.embulkSystemProperty(key, value));
+    }
+
+    /**
+     * Configures the task to install the run set.
+     */
+    public void install(final Action<? super InstallEmbulkRunSet> action) {
+        this.installTask.configure(action);
+    }
+
+    private final String name;
+
+    private final TaskProvider<InstallEmbulkRunSet> installTask;
+}
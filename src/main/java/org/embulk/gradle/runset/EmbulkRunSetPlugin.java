@@ -16,8 +16,12 @@
 
 package org.embulk.gradle.runset;
 
+import java.util.ArrayList;
+import java.util.Locale;
+import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.tasks.TaskProvider;
 
 /**
  * A Gradle plugin to set up an environment for running Embulk.
@@ -25,6 +29,58 @@ import org.gradle.api.Project;
 public class EmbulkRunSetPlugin implements Plugin<Project> {
     @Override
     public void apply(final Project project) {
-        project.getTasks().register("installEmbulkRunSet", InstallEmbulkRunSet.class);
+        final TaskProvider<InstallEmbulkRunSet> installEmbulkRunSet = project.getTasks().register("installEmbulkRunSet", InstallEmbulkRunSet.class);
+
+        // It runs only when requested explicitly, after "installEmbulkRunSet" installs the plugins to be loaded in the training run.
+        project.getTasks().register("createEmbulkRunSetCds", CreateEmbulkRunSetCds.class, task -> {
+            task.dependsOn(installEmbulkRunSet);
+            task.getEmbulkHome().convention(project.getLayout().dir(installEmbulkRunSet.flatMap(InstallEmbulkRunSet::embulkHomeProvider)));
+            task.getClasspath().from(installEmbulkRunSet.flatMap(InstallEmbulkRunSet::embulkCoreFiles));
+            task.getPluginFiles().from(installEmbulkRunSet.flatMap(InstallEmbulkRunSet::installedJarFiles));
+            task.getDestinationDirectory().convention(project.getLayout().getBuildDirectory().dir("embulkRunSetCds"));
+        });
+
+        project.getTasks().register("packageEmbulkRunSetLayers", PackageEmbulkRunSetLayers.class, task -> {
+            task.dependsOn(installEmbulkRunSet);
+            task.getEmbulkHome().convention(project.getLayout().dir(installEmbulkRunSet.flatMap(InstallEmbulkRunSet::embulkHomeProvider)));
+            task.getLayers().convention(installEmbulkRunSet.flatMap(InstallEmbulkRunSet::layeredPaths));
+            task.getDestinationDirectory().convention(project.getLayout().getBuildDirectory().dir("embulkRunSetLayers"));
+        });
+
+        // It only resolves the run set, and does not need "installEmbulkRunSet" to be executed.
+        project.getTasks().register("analyzeEmbulkRunSet", AnalyzeEmbulkRunSet.class, task -> {
+            task.setResolution(installEmbulkRunSet.flatMap(InstallEmbulkRunSet::resolvedArtifactsProvider),
+                               installEmbulkRunSet.flatMap(InstallEmbulkRunSet::resolvedClasspathsProvider));
+            task.getReportFile().convention(project.getLayout().getBuildDirectory().file("reports/embulkRunSet/footprint.txt"));
+        });
+
+        // It verifies the existing embulkHome as it is, and does not need "installEmbulkRunSet" to be executed.
+        project.getTasks().register("verifyEmbulkRunSet", VerifyEmbulkRunSet.class, task -> {
+            task.getEmbulkHome().convention(project.getLayout().dir(installEmbulkRunSet.flatMap(InstallEmbulkRunSet::embulkHomeProvider)));
+            task.getM2RepoRelative().convention(installEmbulkRunSet.flatMap(InstallEmbulkRunSet::m2RepoRelativeProvider));
+        });
+
+        // Each run set declared in "embulkRunSets" is installed by its own task, linked from the content-addressed store shared by all of them.
+        final NamedDomainObjectContainer<EmbulkRunSet> embulkRunSets = project.getObjects().domainObjectContainer(EmbulkRunSet.class, name -> {
+            final TaskProvider<InstallEmbulkRunSet> installTask = project.getTasks().register(
+                    "installEmbulkRunSet" + name.substring(0, 1).toUpperCase(Locale.ENGLISH) + name.substring(1),
+                    InstallEmbulkRunSet.class,
+                    task -> {
+                        task.installMode("hardlink");
+                        task.storeDirectory().convention(project.getLayout().getBuildDirectory().dir("embulkRunSetStore"));
+                    });
+            return project.getObjects().newInstance(EmbulkRunSet.class, name, installTask);
+        });
+        project.getExtensions().add("embulkRunSets", embulkRunSets);
+
+        project.getTasks().register("installEmbulkRunSets", task -> {
+            task.dependsOn(project.provider(() -> {
+                final ArrayList<TaskProvider<InstallEmbulkRunSet>> installTasks = new ArrayList<>();
+                for (final EmbulkRunSet embulkRunSet : embulkRunSets) {
+                    installTasks.add(embulkRunSet.getInstallTask());
+                }
+                return installTasks;
+            }));
+        });
     }
 }
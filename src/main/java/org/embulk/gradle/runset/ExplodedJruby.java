@@ -0,0 +1,182 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Installs a JRuby JAR file exploded into a directory in the Embulk home, so that JRuby boots without inflating the JAR file.
+ *
+ * <p>The JAR file is extracted into a temporary directory first, and then renamed to the target directory. A marker file with
+ * the SHA-256 of the JAR file is written in the directory last so that an unchanged JRuby is not extracted again.
+ *
+ * <p>JRuby lists a directory on its class loader by reading {@code .jrubydir} in the directory, as {@code jruby -S generate_dir_info}
+ * generates. It is generated in each directory under {@code META-INF/jruby.home} which has none yet.
+ */
+final class ExplodedJruby {
+    private ExplodedJruby() {
+        // No instantiation.
+    }
+
+    /**
+     * Explodes the JAR file into the target directory, and deletes the other directories next to the target.
+     *
+     * @return {@code true} if the JAR file is extracted, or {@code false} if the target is already up-to-date
+     */
+    static boolean install(final Path jar, final Path target) throws IOException {
+        final Path parent = target.getParent();
+        Files.createDirectories(parent);
+        deleteOthers(parent, target);
+
+        final String sha256 = RunSetManifest.sha256(jar);
+        final Path marker = target.resolve(MARKER_FILE_NAME);
+        if (Files.isRegularFile(marker) && new String(Files.readAllBytes(marker), StandardCharsets.US_ASCII).equals(sha256)) {
+            return false;
+        }
+
+        final Path temporary = parent.resolve(
+                "." + target.getFileName().toString() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + TEMPORARY_SUFFIX);
+        try {
+            extract(jar, temporary);
+            generateDirectoryIndexes(temporary.resolve(JRUBY_HOME));
+            Files.write(temporary.resolve(MARKER_FILE_NAME), sha256.getBytes(StandardCharsets.US_ASCII));
+            AtomicFiles.deleteRecursively(target);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, target);
+            }
+        } finally {
+            AtomicFiles.deleteRecursively(temporary);
+        }
+        return true;
+    }
+
+    private static void extract(final Path jar, final Path directory) throws IOException {
+        final Path normalizedDirectory = directory.toAbsolutePath().normalize();
+        Files.createDirectories(normalizedDirectory);
+        try (final ZipFile zipFile = new ZipFile(jar.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final Path file = normalizedDirectory.resolve(entry.getName()).normalize();
+                if (!file.startsWith(normalizedDirectory) || file.equals(normalizedDirectory)) {
+                    throw new IOException("Invalid entry \"" + entry.getName() + "\" in the JRuby JAR file: " + jar);
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(file);
+                    continue;
+                }
+                Files.createDirectories(file.getParent());
+                try (final InputStream in = zipFile.getInputStream(entry)) {
+                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes {@code .jrubydir} in the same format as {@code jruby -S generate_dir_info}: {@code "."}, {@code ".."} except
+     * in the top directory, and the sorted names of the entries.
+     */
+    static void generateDirectoryIndexes(final Path top) throws IOException {
+        if (!Files.isDirectory(top)) {
+            return;
+        }
+        Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attributes) throws IOException {
+                final Path index = dir.resolve(DIRECTORY_INDEX_FILE_NAME);
+                if (Files.exists(index)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                final ArrayList<String> names = new ArrayList<>();
+                try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (final Path entry : stream) {
+                        final String name = entry.getFileName().toString();
+                        if (!name.startsWith(".")) {
+                            names.add(name);
+                        }
+                    }
+                }
+                Collections.sort(names);
+                try (final BufferedWriter writer = Files.newBufferedWriter(index, StandardCharsets.UTF_8)) {
+                    writer.write(".\n");
+                    if (!dir.equals(top)) {
+                        writer.write("..\n");
+                    }
+                    for (final String name : names) {
+                        writer.write(name);
+                        writer.write("\n");
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes the directories of other JRuby versions, and temporary directories left by a build killed while extracting.
+     *
+     * <p>Only the directories created by this plugin are deleted: the ones with the marker file, and the temporary ones.
+     * The other files next to the target are kept as they may be put by users.
+     */
+    private static void deleteOthers(final Path parent, final Path target) throws IOException {
+        final List<Path> others = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(parent)) {
+            for (final Path entry : stream) {
+                final String name = entry.getFileName().toString();
+                if (entry.getFileName().equals(target.getFileName()) || !Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                if ((name.startsWith(".") && name.endsWith(TEMPORARY_SUFFIX)) || Files.isRegularFile(entry.resolve(MARKER_FILE_NAME))) {
+                    others.add(entry);
+                }
+            }
+        }
+        for (final Path other : others) {
+            AtomicFiles.deleteRecursively(other);
+        }
+    }
+
+    static final String DIRECTORY_INDEX_FILE_NAME = ".jrubydir";
+
+    static final String JRUBY_HOME = "META-INF/jruby.home";
+
+    private static final String MARKER_FILE_NAME = ".embulk-runset-exploded";
+
+    private static final String TEMPORARY_SUFFIX = ".embulk-runset-tmp";
+}
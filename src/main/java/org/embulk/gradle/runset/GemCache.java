@@ -0,0 +1,130 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * A cache of gem trees installed by JRuby, keyed by the SHA-256 of the gem set.
+ *
+ * <p>A gem tree is installed by {@code gem install} into a temporary directory in the cache first, and then renamed to its key.
+ * A directory named by a key is therefore always complete. The gem tree is installed into the Embulk home from the cache by
+ * the install mode, so that the same gem set is installed by JRuby only once.
+ */
+final class GemCache {
+    private GemCache() {
+        // No instantiation.
+    }
+
+    /**
+     * Returns the key of the gem set: the SHA-256 of the JRuby coordinates, and the names and the SHA-256 of the gem files.
+     */
+    static String key(final String jrubyCoordinates, final List<Path> gems) throws IOException {
+        final TreeMap<String, String> sorted = new TreeMap<>();
+        for (final Path gem : gems) {
+            sorted.put(gem.getFileName().toString(), RunSetManifest.sha256(gem));
+        }
+        final MessageDigest digest = RunSetManifest.newSha256();
+        digest.update(("jruby\t" + jrubyCoordinates + "\n").getBytes(StandardCharsets.UTF_8));
+        for (final String name : sorted.keySet()) {
+            digest.update((name + "\t" + sorted.get(name) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return RunSetManifest.toHex(digest.digest());
+    }
+
+    /**
+     * Returns a new temporary directory in the cache to install the gem tree of the key into.
+     */
+    static Path newTemporaryDirectory(final Path cache, final String key) throws IOException {
+        Files.createDirectories(cache);
+        return Files.createDirectory(cache.resolve(
+                "." + key + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + TEMPORARY_SUFFIX));
+    }
+
+    /**
+     * Renames the temporary directory to the key. If another build has cached the same key meanwhile, the temporary directory is discarded.
+     */
+    static void commit(final Path temporary, final Path cached) throws IOException {
+        try {
+            try {
+                Files.move(temporary, cached, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, cached);
+            }
+        } catch (final IOException ex) {
+            // A directory cannot be renamed onto an existing one. It is cached by another build meanwhile.
+            if (!Files.isDirectory(cached)) {
+                throw ex;
+            }
+        } finally {
+            AtomicFiles.deleteRecursively(temporary);
+        }
+    }
+
+    /**
+     * Installs the cached gem tree into the gem home, replacing the gem tree installed there previously.
+     *
+     * @return {@code true} if installed, or {@code false} if the gem home already has the gem tree of the key
+     */
+    static boolean install(final InstallMode installMode, final Path cached, final Path gemHome, final String key) throws IOException {
+        final Path marker = gemHome.resolve(MARKER_FILE_NAME);
+        if (Files.isRegularFile(marker) && new String(Files.readAllBytes(marker), StandardCharsets.US_ASCII).equals(key)) {
+            return false;
+        }
+
+        AtomicFiles.deleteRecursively(gemHome);
+        final List<Path> files = new ArrayList<>();
+        try (final Stream<Path> walk = Files.walk(cached)) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        for (final Path file : files) {
+            installMode.install(file, gemHome.resolve(cached.relativize(file).toString()));
+        }
+        Files.createDirectories(gemHome);
+        // The marker is written last so that an interrupted install is installed again.
+        Files.write(marker, key.getBytes(StandardCharsets.US_ASCII));
+        return true;
+    }
+
+    /**
+     * Deletes the gem tree installed into the gem home by {@link #install}. The gem home without the marker is kept as it is.
+     *
+     * @return {@code true} if deleted
+     */
+    static boolean uninstall(final Path gemHome) throws IOException {
+        if (!Files.isRegularFile(gemHome.resolve(MARKER_FILE_NAME))) {
+            return false;
+        }
+        AtomicFiles.deleteRecursively(gemHome);
+        return true;
+    }
+
+    private static final String MARKER_FILE_NAME = ".embulk-runset-gems";
+
+    private static final String TEMPORARY_SUFFIX = ".embulk-runset-tmp";
+}
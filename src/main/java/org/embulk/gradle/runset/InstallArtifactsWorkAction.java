@@ -0,0 +1,109 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * A unit of work to install a bucket of resolved artifact files into the Embulk home, run by Gradle's Worker API.
+ *
+ * <p>It is public only because Gradle's Worker API requires it.
+ */
+public abstract class InstallArtifactsWorkAction implements WorkAction<InstallArtifactsWorkAction.Parameters> {
+    public interface Parameters extends WorkParameters {
+        /**
+         * Returns the source files, paired with {@link #getTargetFiles} one-by-one.
+         */
+        ListProperty<File> getSourceFiles();
+
+        /**
+         * Returns the target files, paired with {@link #getSourceFiles} one-by-one.
+         */
+        ListProperty<File> getTargetFiles();
+
+        /**
+         * Returns the name of {@link InstallMode}.
+         */
+        Property<String> getInstallMode();
+
+        /**
+         * Returns whether to write the checksum files next to the target files.
+         */
+        Property<Boolean> getChecksums();
+
+        /**
+         * Returns whether to repack JAR files with uncompressed entries.
+         */
+        Property<Boolean> getRepackStored();
+    }
+
+    @Override
+    public void execute() {
+        final List<File> sourceFiles = this.getParameters().getSourceFiles().get();
+        final List<File> targetFiles = this.getParameters().getTargetFiles().get();
+        if (sourceFiles.size() != targetFiles.size()) {
+            throw new IllegalStateException("The numbers of source files and target files mismatch.");
+        }
+
+        final InstallMode installMode = InstallMode.of(this.getParameters().getInstallMode().get());
+        final boolean checksums = this.getParameters().getChecksums().get();
+        final boolean repackStored = this.getParameters().getRepackStored().get();
+        logger.info("Installing {} files in a work item on {}.", sourceFiles.size(), Thread.currentThread().getName());
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            try {
+                install(installMode, checksums, repackStored, sourceFiles.get(i).toPath(), targetFiles.get(i).toPath());
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        logger.info("Installed {} files in a work item on {}.", sourceFiles.size(), Thread.currentThread().getName());
+    }
+
+    /**
+     * Installs a file by the install mode, or by repacking it if it is a JAR file to be repacked, with its checksum files if requested.
+     */
+    static void install(
+            final InstallMode installMode,
+            final boolean checksums,
+            final boolean repackStored,
+            final Path source,
+            final Path target) throws IOException {
+        if (repackStored && isJar(target)) {
+            StoredJarRepacker.repack(source, target, checksums);
+        } else if (checksums) {
+            ChecksumSidecars.install(installMode, source, target);
+        } else {
+            installMode.install(source, target);
+        }
+    }
+
+    static boolean isJar(final Path file) {
+        return file.getFileName().toString().endsWith(".jar");
+    }
+
+    private static final Logger logger = Logging.getLogger(InstallArtifactsWorkAction.class);
+}
@@ -16,22 +16,37 @@
 
 package org.embulk.gradle.runset;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import javax.inject.Inject;
 import org.gradle.api.Action;
 import org.gradle.api.IllegalDependencyNotation;
 import org.gradle.api.InvalidUserDataException;
@@ -39,27 +54,58 @@ import org.gradle.api.Project;
 import org.gradle.api.artifacts.ArtifactCollection;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.ModuleDependency;
 import org.gradle.api.artifacts.ResolvableDependencies;
+import org.gradle.api.artifacts.ResolvedArtifact;
 import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ComponentSelector;
 import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
 import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
 import org.gradle.api.artifacts.result.ArtifactResolutionResult;
 import org.gradle.api.artifacts.result.ArtifactResult;
 import org.gradle.api.artifacts.result.ComponentArtifactsResult;
+import org.gradle.api.artifacts.result.DependencyResult;
+import org.gradle.api.artifacts.result.ResolutionResult;
 import org.gradle.api.artifacts.result.ResolvedArtifactResult;
+import org.gradle.api.artifacts.result.ResolvedComponentResult;
+import org.gradle.api.artifacts.result.ResolvedDependencyResult;
+import org.gradle.api.configuration.BuildFeatures;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.CopySpec;
-import org.gradle.api.file.DuplicatesStrategy;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Specs;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Copy;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
 import org.gradle.maven.MavenModule;
 import org.gradle.maven.MavenPomArtifact;
+import org.gradle.process.ExecOperations;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
 /**
  * A Gradle Task to set up an environment for running Embulk.
+ *
+ * <p>It is cacheable in the build cache when the installed embulkHome is relocatable. See {@link #relocatableJruby}.
  */
-public class InstallEmbulkRunSet extends Copy {
+@CacheableTask
+public abstract class InstallEmbulkRunSet extends Copy {
     public InstallEmbulkRunSet() {
         super();
 
@@ -67,11 +113,78 @@ public class InstallEmbulkRunSet extends Copy {
         this.logger = this.project.getLogger();
         this.embulkHome = null;
         this.embulkSystemProperties = new Properties();
-        this.embulkSystemPropertiesSource = null;
-        this.jrubyRelative = null;
-        this.m2RepoRelative = DEFAULT_M2_REPO_RELATIVE;
+        this.embulkPropertiesEnabled = false;
+        this.m2RepoRelative = DEFAULT_M2_REPO_RELATIVE.toFile();
+        this.artifactDependencies = new ArrayList<>();
+        this.localRepositories = new ArrayList<>();
+        this.jrubyDependency = null;
+        this.resolveInSingleGraph = false;
+        this.notations = new ArrayList<>();
+        this.alignments = new ArrayList<>();
+        this.providedModules = new ArrayList<>();
+        this.embulkCoreVersion = null;
+        this.lockfile = null;
+        this.updateLockfile = false;
+        this.generationsDir = null;
+        this.keepGenerations = 0;
+        this.generationsInput = null;
 
         final ObjectFactory objectFactory = this.project.getObjects();
+        this.parallelism = objectFactory.property(Integer.class).convention(1);
+        this.installMode = objectFactory.property(InstallMode.class).convention(InstallMode.COPY);
+        this.sync = objectFactory.property(Boolean.class).convention(false);
+        this.classpathManifest = objectFactory.property(Boolean.class).convention(false);
+        this.checksums = objectFactory.property(Boolean.class).convention(false);
+        this.repackStored = objectFactory.property(Boolean.class).convention(false);
+        this.relocatableJruby = objectFactory.property(Boolean.class).convention(false);
+        this.explodedJruby = objectFactory.property(Boolean.class).convention(false);
+        this.pluginIndex = objectFactory.property(Boolean.class).convention(false);
+        this.store = objectFactory.directoryProperty();
+        this.gemFiles = objectFactory.fileCollection();
+        this.gemJavaExecutable = objectFactory.property(String.class);
+        this.gradleUserHome = this.project.getGradle().getGradleUserHomeDir();
+        this.reportFile = this.project.getLayout().getBuildDirectory().file("reports/embulkRunSet/" + this.getName() + ".json");
+        // Listing Gradle's cache while the configuration cache entry is stored would make the listing its input.
+        this.cachedFilesBeforeFetch = this.getBuildFeatures().getConfigurationCache().getActive().get() ? null : new HashSet<>();
+
+        // The providers are evaluated only when the task is really executed, or when the configuration cache is stored.
+        this.resolvedArtifacts = this.project.provider(this::resolveArtifacts);
+        this.resolvedArtifactFiles = objectFactory.fileCollection().from(this.resolvedArtifacts.map(artifacts -> {
+            final ArrayList<File> files = new ArrayList<>();
+            for (final RunSetArtifact artifact : artifacts) {
+                files.add(artifact.getFile());
+            }
+            return files;
+        }));
+        this.embulkPropertiesPlaceholder = objectFactory.fileCollection().from(this.project.provider(() -> {
+            if (!this.embulkPropertiesEnabled) {
+                return Collections.<File>emptyList();
+            }
+            return Collections.singletonList(this.createEmbulkPropertiesPlaceholder());
+        }));
+        this.resolvedJruby = this.project.provider(this::resolveJruby);
+        this.resolvedClasspaths = this.project.provider(() -> {
+            this.resolveArtifacts();
+            return this.classpathsMemoized;
+        });
+        this.prunedModules = this.project.provider(() -> {
+            this.resolveArtifacts();
+            return new ArrayList<>(this.prunedMemoized);
+        });
+
+        // The installed embulkHome can be restored from the build cache into another path only if it has no absolute path in it,
+        // and if the task has no side effect out of embulkHome to be preserved. The store and the gem cache are written out of
+        // embulkHome, but they are only caches filled again when needed. The embulkHome restored has its own files, not linked to them.
+        // A restore wipes embulkHome, but Gradle itself disables caching as overlapping outputs if embulkHome has any file which the task
+        // did not create in its last execution, so that files put by users or by other tasks are never deleted.
+        this.getOutputs().cacheIf("the \"jruby\" Embulk System Property is not relocatable without relocatableJruby",
+                task -> ((InstallEmbulkRunSet) task).isJrubyRelocatable());
+        this.getOutputs().cacheIf("symbolic links are not restored from the build cache",
+                task -> ((InstallEmbulkRunSet) task).installMode.get() != InstallMode.SYMLINK);
+        this.getOutputs().cacheIf("the run set lockfile is to be written",
+                task -> !((InstallEmbulkRunSet) task).isLockfileToBeWritten());
+        this.getOutputs().cacheIf("generations are published out of embulkHome",
+                task -> ((InstallEmbulkRunSet) task).generationsDir == null);
     }
 
     /**
@@ -79,6 +192,8 @@ public class InstallEmbulkRunSet extends Copy {
      *
      * <p>It tries to simulate Gradle's dependency notations, but it is yet far from perfect.
      *
+     * <p>It only records the notation. The artifact is resolved lazily when the task is really executed.
+     *
      * @see <a href="https://github.com/gradle/gradle/blob/v8.7.0/platforms/software/dependency-management/src/main/java/org/gradle/api/internal/notations/DependencyNotationParser.java#L49-L86">org.gradle.api.internal.notations.DependencyNotationParser#create</a>
      */
     public void artifact(final Object dependencyNotation) {
@@ -91,33 +206,8 @@ public class InstallEmbulkRunSet extends Copy {
             throw new IllegalDependencyNotation("Supplied module notation is invalid.");
         }
 
-        // Constructing an independent (detached) Configuration so that its dependencies are not affected by other plugins.
-        final Configuration configuration = this.project.getConfigurations().detachedConfiguration(dependency);
-
-        final ResolvableDependencies resolvableDependencies = configuration.getIncoming();
-        final ArtifactCollection artifactCollection = resolvableDependencies.getArtifacts();
-
-        // Getting the JAR files and component IDs.
-        final ArrayList<ComponentIdentifier> componentIds = new ArrayList<>();
-        for (final ResolvedArtifactResult resolvedArtifactResult : artifactCollection.getArtifacts()) {
-            componentIds.add(resolvedArtifactResult.getId().getComponentIdentifier());
-            this.fromArtifact(resolvedArtifactResult, "jar");
-        }
-
-        // Getting the POM files.
-        final ArtifactResolutionResult artifactResolutionResult = this.project.getDependencies()
-                .createArtifactResolutionQuery()
-                .forComponents(componentIds)
-                .withArtifacts(MavenModule.class, MavenPomArtifact.class)
-                .execute();
-        for (final ComponentArtifactsResult componentArtifactResult : artifactResolutionResult.getResolvedComponents()) {
-            for (final ArtifactResult artifactResult : componentArtifactResult.getArtifacts(MavenPomArtifact.class)) {
-                if (artifactResult instanceof ResolvedArtifactResult) {
-                    final ResolvedArtifactResult resolvedArtifactResult = (ResolvedArtifactResult) artifactResult;
-                    this.fromArtifact(resolvedArtifactResult, "pom");
-                }
-            }
-        }
+        this.artifactDependencies.add(dependency);
+        this.notations.add("artifact " + notationToString(dependencyNotation));
     }
 
     /**
@@ -125,6 +215,8 @@ public class InstallEmbulkRunSet extends Copy {
      *
      * <p>It tries to simulate Gradle's dependency notations, but it is yet far from perfect.
      *
+     * <p>It only records the notation. The artifact is resolved lazily when the task is really executed.
+     *
      * @see <a href="https://github.com/gradle/gradle/blob/v8.7.0/platforms/software/dependency-management/src/main/java/org/gradle/api/internal/notations/DependencyNotationParser.java#L49-L86">org.gradle.api.internal.notations.DependencyNotationParser#create</a>
      */
     public InstallEmbulkRunSet jruby(final Object dependencyNotation) {
@@ -137,25 +229,323 @@ public class InstallEmbulkRunSet extends Copy {
             throw new IllegalDependencyNotation("Supplied jruby module notation is invalid.");
         }
 
-        // Constructing an independent (detached) Configuration so that its dependencies are not affected by other plugins.
-        final Configuration configuration = this.project.getConfigurations().detachedConfiguration(dependency);
+        this.jrubyDependency = dependency;
+        this.notations.removeIf(notation -> notation.startsWith("jruby "));
+        this.notations.add("jruby " + notationToString(dependencyNotation));
+        this.enableEmbulkProperties();
+        return this;
+    }
 
-        final ResolvableDependencies resolvableDependencies = configuration.getIncoming();
-        final ArtifactCollection artifactCollection = resolvableDependencies.getArtifacts();
+    /**
+     * Sets whether to resolve all the artifacts added by {@code artifact} in a single dependency graph.
+     *
+     * <p>It is {@code false} by default, and each artifact is resolved in its own independent dependency graph.
+     *
+     * <p>If {@code true}, all the artifacts are resolved in one dependency graph, and their POM files are fetched
+     * in one batched query. It is much faster for many artifacts sharing transitive dependencies. Versions evicted
+     * by conflict resolution in the single graph are still fetched and installed with their transitive dependencies
+     * so that each plugin finds the versions it depends on in the Maven repository layout. Each evicted version is
+     * resolved in its own graph, which may select other versions of its dependencies than the plugin's own graph would.
+     */
+    public InstallEmbulkRunSet resolveInSingleGraph(final boolean resolveInSingleGraph) {
+        this.resolveInSingleGraph = resolveInSingleGraph;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of parallel work items to install the resolved artifacts into embulkHome.
+     *
+     * <p>It is {@code 1} by default, and the artifacts are copied sequentially. If it is more than {@code 1}, the artifacts
+     * are split into the number of buckets balanced by their sizes, and installed in parallel through Gradle's Worker API.
+     * The actual parallelism is also bounded by Gradle's {@code --max-workers}.
+     *
+     * <p>Note that dependency resolution itself runs in Gradle's dependency management, which downloads the files of
+     * each dependency graph in parallel by itself.
+     */
+    public InstallEmbulkRunSet parallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new InvalidUserDataException("Supplied parallelism " + parallelism + " is not positive.");
+        }
+        this.parallelism.set(parallelism);
+        return this;
+    }
+
+    /**
+     * Sets how to install the resolved artifacts from Gradle's cache into embulkHome: "copy", "hardlink", or "symlink".
+     *
+     * <p>It is "copy" by default. "hardlink" and "symlink" make installs onto the same volume near-instant without extra disk,
+     * but note that the installed files then share their contents with Gradle's cache. They fall back to "copy" when links
+     * cannot be created, for example, hard links across file systems.
+     */
+    public InstallEmbulkRunSet installMode(final String installMode) {
+        this.installMode.set(InstallMode.of(installMode));
+        return this;
+    }
+
+    /**
+     * Sets whether to synchronize the installed artifacts in embulkHome incrementally.
+     *
+     * <p>It is {@code false} by default. If {@code true}, the task records the installed artifacts with their sizes and SHA-256
+     * hashes in a manifest file {@code .embulk-runset-manifest} in embulkHome. Then, it writes only artifacts changed from
+     * the manifest, and deletes artifacts installed previously but no longer in the run set.
+     */
+    public InstallEmbulkRunSet sync(final boolean sync) {
+        this.sync.set(sync);
+        return this;
+    }
+
+    /**
+     * Sets the run set lockfile.
+     *
+     * <p>If the lockfile does not exist, the task resolves the artifacts, and writes every resolved artifact with its
+     * SHA-256 hash into the lockfile. If the lockfile exists, the task installs the artifacts listed in the lockfile
+     * without resolving the dependency graphs again, and fails if any checksum mismatches. Run the task with
+     * {@code --update-lockfile} to resolve the artifacts again, and to update the lockfile.
+     */
+    public InstallEmbulkRunSet lockfile(final File file) {
+        if (file == null) {
+            throw new InvalidUserDataException("Supplied lockfile is null.");
+        }
+        this.lockfile = file;
+        return this;
+    }
+
+    @Option(option = "update-lockfile", description = "Resolves the artifacts again, and updates the run set lockfile.")
+    public void setUpdateLockfile(final boolean updateLockfile) {
+        this.updateLockfile = updateLockfile;
+        if (updateLockfile) {
+            // The lockfile is to be updated even if the installed run set is up-to-date.
+            this.getOutputs().upToDateWhen(Specs.satisfyNone());
+        }
+    }
+
+    /**
+     * Sets whether to write a precomputed classpath manifest for each plugin added by {@code artifact}.
+     *
+     * <p>It is {@code false} by default. If {@code true}, the task writes {@code <module>-<version>.classpath} next to
+     * the plugin's POM file in the Maven repository layout. It lists the plugin's JAR file and all its dependency JAR files
+     * in the resolved order, one per line as a path relative from embulkHome. Each manifest is referenced from the
+     * Embulk System Property {@code classpath_manifest.<group>:<module>:<version>} so that the runtime can build
+     * the plugin's classpath without reading POM files.
+     */
+    public InstallEmbulkRunSet classpathManifest(final boolean classpathManifest) {
+        this.classpathManifest.set(classpathManifest);
+        if (classpathManifest) {
+            this.enableEmbulkProperties();
+        }
+        return this;
+    }
+
+    /**
+     * Sets whether to write Maven-style checksum files {@code <file>.sha1} and {@code <file>.sha256} next to each installed artifact.
+     *
+     * <p>It is {@code false} by default. If {@code true}, the checksums are calculated while each artifact is installed,
+     * without reading the installed files again after the installation.
+     */
+    public InstallEmbulkRunSet checksums(final boolean checksums) {
+        this.checksums.set(checksums);
+        return this;
+    }
+
+    /**
+     * Sets whether to repack the installed JAR files with uncompressed (STORED) entries for faster class loading.
+     *
+     * <p>It is {@code false} by default. If {@code true}, each JAR file is rewritten into embulkHome with the same entries
+     * uncompressed, regardless of {@code installMode}, trading disk space for no inflation at class loading. The SHA-256 of
+     * the original JAR file is recorded in {@code <file>.original.sha256} next to it. The files in Gradle's cache are never modified.
+     */
+    public InstallEmbulkRunSet repackStored(final boolean repackStored) {
+        this.repackStored.set(repackStored);
+        return this;
+    }
+
+    /**
+     * Sets whether to set the "jruby" Embulk System Property in a relocatable form, {@code maven:<group>:<module>:<version>}.
+     *
+     * <p>It is {@code false} by default, and the property is set to the absolute {@code file:} URI of the JRuby artifact
+     * in embulkHome. If {@code true}, Embulk looks for the JRuby artifact in its {@code m2_repo} relative from embulkHome.
+     * It makes embulkHome relocatable, which is required to restore it from the build cache.
+     */
+    public InstallEmbulkRunSet relocatableJruby(final boolean relocatableJruby) {
+        this.relocatableJruby.set(relocatableJruby);
+        return this;
+    }
+
+    /**
+     * Sets whether to install the JRuby artifact also exploded into a directory, and to set the "jruby" Embulk System Property to it.
+     *
+     * <p>It is {@code false} by default. If {@code true}, the JRuby JAR file is extracted once into {@code jruby/<file name>/} in
+     * embulkHome, with {@code .jrubydir} generated in each directory of its stdlib and gems, so that JRuby boots without inflating
+     * the JAR file. The property is then the absolute {@code file:} URI of the directory, and it cannot be used with {@code relocatableJruby}.
+     */
+    public InstallEmbulkRunSet explodedJruby(final boolean explodedJruby) {
+        this.explodedJruby.set(explodedJruby);
+        return this;
+    }
+
+    /**
+     * Sets whether to index the plugin types provided by the plugins, and to set the Embulk System Properties to load them directly.
+     *
+     * <p>It is {@code false} by default. If {@code true}, the manifest of each plugin JAR file is scanned at installation.
+     * Each plugin found is written into {@code embulk-plugins.tsv} in embulkHome, and into the Embulk System Property
+     * {@code plugins.<category>.<type>} as {@code maven:<group>:<type>:<version>} unless it is set explicitly.
+     */
+    public InstallEmbulkRunSet pluginIndex(final boolean pluginIndex) {
+        this.pluginIndex.set(pluginIndex);
+        if (pluginIndex) {
+            this.enableEmbulkProperties();
+        }
+        return this;
+    }
+
+    /**
+     * Aligns the version of a module in all the plugins, such as {@code "com.fasterxml.jackson.core:jackson-databind:2.15.2"}.
+     *
+     * <p>The version is forced in the dependency graph of every plugin so that the module is installed only in the version.
+     * Use it only for the alignments approved by the plugins' users, for example, suggested by {@code analyzeEmbulkRunSet}.
+     */
+    public InstallEmbulkRunSet align(final String moduleVersionNotation) {
+        if (moduleVersionNotation == null || moduleVersionNotation.split(":", -1).length != 3) {
+            throw new InvalidUserDataException("Supplied align notation must be \"group:module:version\": " + moduleVersionNotation);
+        }
+        this.alignments.add(moduleVersionNotation);
+        this.notations.add("align " + moduleVersionNotation);
+        return this;
+    }
+
+    /**
+     * Sets the version of Embulk core that runs the run set, such as {@code "0.11.5"}.
+     *
+     * <p>The modules that {@code org.embulk:embulk-core} of the version depends on, transitively, are provided by Embulk core
+     * at runtime. They are pruned from the dependencies of the plugins, and not installed. Only the versions of the modules
+     * are ignored. Embulk core provides its own versions.
+     */
+    public InstallEmbulkRunSet embulkCore(final String version) {
+        if (version == null || version.isEmpty() || version.contains(":")) {
+            throw new InvalidUserDataException("Supplied embulkCore version is invalid: " + version);
+        }
+        this.embulkCoreVersion = version;
+        this.notations.removeIf(notation -> notation.startsWith("embulkCore "));
+        this.notations.add("embulkCore " + version);
+        return this;
+    }
+
+    /**
+     * Adds a module provided at runtime, such as {@code "org.slf4j:slf4j-api"}, to be pruned from the dependencies of the plugins.
+     */
+    public InstallEmbulkRunSet provided(final String moduleNotation) {
+        if (moduleNotation == null || moduleNotation.split(":", -1).length != 2) {
+            throw new InvalidUserDataException("Supplied provided notation must be \"group:module\": " + moduleNotation);
+        }
+        this.providedModules.add(moduleNotation);
+        this.notations.add("provided " + moduleNotation);
+        return this;
+    }
+
+    /**
+     * Adds a local Maven repository directory, such as {@code ~/.m2/repository} or a mirror mounted from a file server.
+     *
+     * <p>The JAR and POM files found in the local repositories, in the order added, are installed directly from there.
+     * Only the files missing in them are fetched through Gradle's cache. The dependency graphs are still resolved by Gradle.
+     * The files in the local repositories are trusted as they are. Use it with {@code lockfile} to verify them.
+     */
+    public InstallEmbulkRunSet localRepository(final File dir) {
+        if (dir == null) {
+            throw new InvalidUserDataException("Supplied localRepository is null.");
+        }
+        if (!dir.isAbsolute()) {
+            throw new InvalidUserDataException(
+                    "Supplied localRepository \"" + dir.toString() + "\" is not absolute."
+                    + " Get an absolute path by: File#getAbsoluteFile()");
+        }
+        this.localRepositories.add(dir);
+        return this;
+    }
+
+    /**
+     * Sets a content-addressed store shared by multiple run sets.
+     *
+     * <p>If set, each artifact file is stored once in the store as {@code sha256/<first 2 digits>/<SHA-256>}, and then installed
+     * from there into embulkHome by the install mode. Use it with {@code installMode "hardlink"} or {@code "symlink"} so that
+     * identical files in multiple embulkHomes share the same file in the store.
+     */
+    public InstallEmbulkRunSet store(final File dir) {
+        if (dir == null) {
+            throw new InvalidUserDataException("Supplied store is null.");
+        }
+        this.store.set(dir);
+        return this;
+    }
 
-        // Getting the JAR file.
-        final ArrayList<ComponentIdentifier> componentIds = new ArrayList<>();
-        final Set<ResolvedArtifactResult> resolvedArtifactResults = artifactCollection.getArtifacts();
-        if (resolvedArtifactResults.isEmpty()) {
-            throw new IllegalDependencyNotation("Supplied jruby module notation is unavailable.");
+    /**
+     * Adds a gem file, or a directory of gem files, of gem-based Embulk plugins to be installed by the JRuby set by {@code jruby}.
+     *
+     * <p>The gems are installed by {@code gem install --local} into {@code lib/gems} in embulkHome, which is the default {@code gem_home}
+     * of Embulk. Their dependencies must also be added as gem files. The installed gem tree is cached by the SHA-256 of the gem set
+     * in {@code gems/} of the store, or of Gradle's cache without the store, and then installed from the cache by the install mode.
+     */
+    public InstallEmbulkRunSet gem(final File fileOrDir) {
+        if (fileOrDir == null) {
+            throw new InvalidUserDataException("Supplied gem is null.");
+        }
+        if (!fileOrDir.isAbsolute()) {
+            throw new InvalidUserDataException(
+                    "Supplied gem \"" + fileOrDir.toString() + "\" is not absolute."
+                    + " Get an absolute path by: File#getAbsoluteFile()");
         }
-        if (resolvedArtifactResults.size() > 1) {
-            throw new IllegalDependencyNotation("Supplied jruby module notation has dependencies. Specify jruby-complete instead.");
+        if (fileOrDir.isDirectory()) {
+            this.gemFiles.from(this.project.fileTree(fileOrDir, tree -> tree.include("*.gem")));
+        } else {
+            this.gemFiles.from(fileOrDir);
         }
+        return this;
+    }
 
-        final ResolvedArtifactResult resolvedArtifactResult = resolvedArtifactResults.stream().findFirst().get();
-        this.jrubyRelative = this.fromArtifact(resolvedArtifactResult, "jar");
+    /**
+     * Sets the {@code java} executable to run JRuby for {@code gem install}. It is the one running Gradle by default.
+     */
+    public InstallEmbulkRunSet gemJavaExecutable(final String executable) {
+        if (executable == null) {
+            throw new InvalidUserDataException("Supplied gemJavaExecutable is null.");
+        }
+        this.gemJavaExecutable.set(executable);
+        return this;
+    }
 
+    /**
+     * Publishes embulkHome as a new generation in the directory after each install, keeping the number of previous generations.
+     *
+     * <p>embulkHome is then a staging directory. It is installed, and published as {@code <dir>/<number>/}, under a file lock in the
+     * directory, and the symbolic link {@code <dir>/current} is switched to it atomically. The artifacts, the exploded JRuby, and the
+     * gems unchanged from the latest generation are hard-linked from it so that they are shared by the generations. The generations
+     * older than the current and {@code keep} previous ones are deleted. It requires {@code relocatableJruby} with {@code jruby}
+     * so that "embulk.properties" does not have the absolute path of embulkHome.
+     *
+     * <p>The directory must not be in embulkHome, and must be on the same file system root as the project directory.
+     */
+    public InstallEmbulkRunSet generations(final File dir, final int keep) {
+        if (dir == null) {
+            throw new InvalidUserDataException("Supplied generations directory is null.");
+        }
+        if (!dir.isAbsolute()) {
+            throw new InvalidUserDataException(
+                    "Supplied generations directory \"" + dir.toString() + "\" is not absolute."
+                    + " Get an absolute path by: File#getAbsoluteFile()");
+        }
+        if (keep < 0) {
+            throw new InvalidUserDataException("Supplied number of generations to keep " + keep + " is negative.");
+        }
+        final Path relative;
+        try {
+            relative = this.project.getProjectDir().toPath().relativize(dir.toPath());
+        } catch (final IllegalArgumentException ex) {
+            throw new InvalidUserDataException(
+                    "Supplied generations directory \"" + dir.toString() + "\" is not on the same root as the project directory.", ex);
+        }
+        this.generationsDir = dir;
+        this.keepGenerations = keep;
+        // The directory is an input relative from the project directory so that the input does not depend on where the project is.
+        this.generationsInput = toSlashSeparated(relative) + " " + keep;
         return this;
     }
 
@@ -182,7 +572,7 @@ public class InstallEmbulkRunSet extends Copy {
             this.logger.lifecycle("Supplied embulkHome \"{}\" does not exist, then will be created.", dir);
         }
 
-        this.embulkHome = dir.toPath();
+        this.embulkHome = dir;
 
         super.into(dir);
         return this;
@@ -193,23 +583,25 @@ public class InstallEmbulkRunSet extends Copy {
             throw new InvalidUserDataException("Supplied m2RepoRelative is null.");
         }
 
+        final Path path;
         try {
-            this.m2RepoRelative = Paths.get(dir);
+            path = Paths.get(dir);
         } catch (final InvalidPathException ex) {
             throw new InvalidUserDataException("Supplied m2RepoRelative \"" + dir + "\"is invalid.", ex);
         }
 
-        if (this.m2RepoRelative.isAbsolute()) {
+        if (path.isAbsolute()) {
             throw new InvalidUserDataException(
                     "Supplied m2RepoRelative \"" + dir + "\" is absolute."
                     + " Supply a relative path from embulkHome.");
         }
 
-        return this.embulkSystemProperty("m2_repo", this.m2RepoRelative.toString());
+        this.m2RepoRelative = path.toFile();
+        return this.embulkSystemProperty("m2_repo", path.toString());
     }
 
     public InstallEmbulkRunSet embulkSystemProperty(final String key, final String value) {
-        this.createPropertiesSourceAndSetToCopy();
+        this.enableEmbulkProperties();
         this.embulkSystemProperties.setProperty(key, value);
         return this;
     }
@@ -229,86 +621,683 @@ public class InstallEmbulkRunSet extends Copy {
         throw new InvalidUserDataException("\"into\" is not permitted in InstallEmbulkRunSet. Use \"embulkHome\" instead.");
     }
 
-    private Path fromArtifact(final ResolvedArtifactResult resolvedArtifactResult, final String artifactType) {
-        final ComponentIdentifier id = resolvedArtifactResult.getId().getComponentIdentifier();
-        final File file = resolvedArtifactResult.getFile();
-
-        if (id instanceof ModuleComponentIdentifier) {
-            final Path modulePath = moduleToPath((ModuleComponentIdentifier) id);
-            final Path modulePathFromHome = this.m2RepoRelative.resolve(modulePath);
-            this.logger.lifecycle("Setting to copy {}:{} into {}", id, artifactType, modulePath);
-            this.logger.info("Cached file: {}", file);
-            this.from(file, copy -> {
-                copy.into(modulePathFromHome.toFile());
-                copy.setDuplicatesStrategy(DuplicatesStrategy.EXCLUDE);
-            });
-            return modulePathFromHome.resolve(file.getName());
-        } else if (id instanceof ProjectComponentIdentifier) {
-            throw new IllegalDependencyNotation("Cannot install artifacts for a project component (" + id.getDisplayName() + ")");
-        } else {
-            throw new IllegalDependencyNotation(
-                    "Cannot resolve the artifacts for component "
-                    + id.getDisplayName()
-                    + " with unsupported type "
-                    + id.getClass().getName()
-                    + ".");
+    /**
+     * Resolves the artifacts added by {@code artifact}, and the JRuby artifact added by {@code jruby}.
+     *
+     * <p>It is called through {@link #resolvedArtifacts} only when the artifacts are really needed. The result is memoized.
+     */
+    private synchronized List<RunSetArtifact> resolveArtifacts() {
+        if (this.resolvedArtifactsMemoized == null) {
+            final long startNanos = System.nanoTime();
+            this.resolvePomsNanos = 0L;
+            this.classpathsMemoized = new LinkedHashMap<>();
+            this.prunedMemoized = new TreeSet<>();
+            final RunSetLockfile lockfile = this.readLockfileToInstall();
+            if (lockfile != null) {
+                this.logger.lifecycle("Installing the artifacts listed in the run set lockfile \"{}\".", this.lockfile);
+                this.resolvedArtifactsMemoized = Collections.unmodifiableList(this.resolveLockedArtifacts(lockfile));
+            } else {
+                final ArrayList<RunSetArtifact> artifacts = new ArrayList<>();
+                if (this.resolveInSingleGraph) {
+                    artifacts.addAll(this.resolveArtifactsInSingleGraph(this.artifactDependencies));
+                } else {
+                    for (final Dependency dependency : this.artifactDependencies) {
+                        artifacts.addAll(this.resolveArtifact(dependency));
+                    }
+                }
+                final RunSetArtifact jruby = this.resolveJruby();
+                if (jruby != null) {
+                    artifacts.add(jruby);
+                }
+                this.resolvedArtifactsMemoized = Collections.unmodifiableList(artifacts);
+            }
+            this.resolveNanos = System.nanoTime() - startNanos;
+            if (!this.localRepositories.isEmpty()) {
+                this.logLocalRepositoryHits(this.resolvedArtifactsMemoized);
+            }
+            if (!this.prunedMemoized.isEmpty()) {
+                this.logger.lifecycle("Pruned {} modules provided by Embulk core: {}", this.prunedMemoized.size(), String.join(", ", this.prunedMemoized));
+            }
         }
+        return this.resolvedArtifactsMemoized;
     }
 
-    private static Path moduleToPath(final ModuleComponentIdentifier id) {
-        final String[] splitGroup = id.getGroup().split("\\.");
-        if (splitGroup.length <= 0) {
-            return Paths.get("");
+    /**
+     * Reads the lockfile if the artifacts are to be installed from the lockfile, or returns {@code null} otherwise.
+     */
+    private RunSetLockfile readLockfileToInstall() {
+        if (this.lockfile == null || this.updateLockfile || !this.lockfile.exists()) {
+            return null;
         }
 
-        final String[] more = new String[splitGroup.length + 2 - 1];
-        for (int i = 1; i < splitGroup.length; i++) {
-            more[i - 1] = splitGroup[i];
+        final RunSetLockfile lockfile;
+        try {
+            lockfile = RunSetLockfile.read(this.lockfile.toPath());
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
         }
-        more[splitGroup.length - 1] = id.getModule();
-        more[splitGroup.length] = id.getVersion();
-        final Path path = Paths.get(splitGroup[0], more);
-        assert !path.isAbsolute();
-        return path;
+        if (!lockfile.getNotations().equals(this.notations)) {
+            throw new InvalidUserDataException(
+                    "The run set lockfile \"" + this.lockfile + "\" does not match the supplied artifacts."
+                    + " Run with --update-lockfile to update the lockfile.");
+        }
+        return lockfile;
     }
 
-    // https://github.com/gradle/gradle/blob/v8.7.0/platforms/software/dependency-management/src/main/java/org/gradle/api/internal/notations/DependencyStringNotationConverter.java
-    private Dependency dependencyFromCharSequence(final CharSequence dependencyNotation) {
-        final String notationString = dependencyNotation.toString();
-        this.logger.info("Supplied artifact: {}", notationString);
-        return this.project.getDependencies().create(notationString);
-    }
+    /**
+     * Fetches exactly the artifacts listed in the lockfile, without their transitive dependencies.
+     *
+     * <p>The artifacts are fetched in as few detached configurations as possible, each of which contains at most one version
+     * of each module so that no conflict resolution happens.
+     */
+    private List<RunSetArtifact> resolveLockedArtifacts(final RunSetLockfile lockfile) {
+        final ArrayList<Map<String, String>> partitionVersions = new ArrayList<>();
+        final ArrayList<List<RunSetLockfile.Entry>> partitions = new ArrayList<>();
+        final LinkedHashMap<String, RunSetLockfile.Entry> entries = new LinkedHashMap<>();
+        for (final RunSetLockfile.Entry entry : lockfile.getEntries()) {
+            entries.put(entry.getKey(), entry);
+            final String moduleKey = entry.getGroup() + ":" + entry.getModule();
+            int i = 0;
+            while (i < partitions.size()) {
+                final String version = partitionVersions.get(i).get(moduleKey);
+                if (version == null || version.equals(entry.getVersion())) {
+                    break;
+                }
+                i++;
+            }
+            if (i == partitions.size()) {
+                partitionVersions.add(new HashMap<>());
+                partitions.add(new ArrayList<>());
+            }
+            partitionVersions.get(i).put(moduleKey, entry.getVersion());
+            partitions.get(i).add(entry);
+        }
 
-    // https://github.com/gradle/gradle/blob/v8.7.0/subprojects/core/src/main/java/org/gradle/internal/typeconversion/MapNotationConverter.java
-    private Dependency dependencyFromMap(final Map dependencyNotation) {
-        final Map<String, String> notationMap = validateMap(dependencyNotation);
-        this.logger.info("Supplied artifact: {}", notationMap);
-        return this.project.getDependencies().create(notationMap);
-    }
+        final HashMap<String, RunSetArtifact> found = new HashMap<>();
+        for (final List<RunSetLockfile.Entry> partition : partitions) {
+            final ArrayList<Dependency> dependencies = new ArrayList<>();
+            for (final RunSetLockfile.Entry entry : partition) {
+                final RunSetArtifact local = this.findInLocalRepositories(
+                        entry.getGroup(), entry.getModule(), entry.getVersion(), entry.getType(), entry.getFileName());
+                if (local != null) {
+                    found.put(entry.getKey(), local);
+                    if (entry.getKind().equals("jruby")) {
+                        this.resolvedJrubyMemoized = local;
+                    }
+                    continue;
+                }
+                final String notation = entry.getGroup() + ":" + entry.getModule() + ":" + entry.getVersion()
+                        + (entry.getClassifier() != null ? ":" + entry.getClassifier() : "")
+                        + "@" + entry.getType();
+                final Dependency dependency = this.project.getDependencies().create(notation);
+                ((ModuleDependency) dependency).setTransitive(false);
+                dependencies.add(dependency);
+            }
+            if (dependencies.isEmpty()) {
+                continue;
+            }
 
-    private static Map<String, String> validateMap(final Map dependencyNotation) {
-        final LinkedHashMap<String, String> map = new LinkedHashMap<>();
-        for (final Map.Entry<Object, Object> entry : castMap(dependencyNotation).entrySet()) {
-            final Object keyObject = entry.getKey();
-            if (!(keyObject instanceof CharSequence)) {
-                throw new IllegalDependencyNotation("Supplied Map module notation is invalid. Its key must be a String.");
+            final Configuration configuration = this.project.getConfigurations().detachedConfiguration(
+                    dependencies.toArray(new Dependency[dependencies.size()]));
+            this.recordCachedFiles(configuration.getIncoming().getResolutionResult());
+            for (final ResolvedArtifactResult resolvedArtifactResult : configuration.getIncoming().getArtifacts().getArtifacts()) {
+                final ComponentIdentifier id = resolvedArtifactResult.getId().getComponentIdentifier();
+                final String key = id.getDisplayName() + "/" + resolvedArtifactResult.getFile().getName();
+                final RunSetLockfile.Entry entry = entries.get(key);
+                if (entry != null && !found.containsKey(key)) {
+                    final RunSetArtifact artifact = this.fromArtifact(resolvedArtifactResult, entry.getType());
+                    found.put(key, artifact);
+                    if (entry.getKind().equals("jruby")) {
+                        this.resolvedJrubyMemoized = artifact;
+                    }
+                }
             }
-            final String key = (String) keyObject;
-            if (!ACCEPTABLE_MAP_KEYS.contains(key)) {
-                throw new IllegalDependencyNotation(
-                        "Supplied Map module notation is invalid. Its key must be one of: ["
-                        + String.join(", ", ACCEPTABLE_MAP_KEYS)
-                        + "]");
+        }
+
+        final ArrayList<RunSetArtifact> artifacts = new ArrayList<>();
+        for (final String key : entries.keySet()) {
+            final RunSetArtifact artifact = found.get(key);
+            if (artifact == null) {
+                throw new InvalidUserDataException("Artifact " + key + " in the run set lockfile \"" + this.lockfile + "\" is unavailable.");
             }
+            artifacts.add(artifact);
+        }
 
-            final Object valueObject = entry.getValue();
-            if (!(valueObject instanceof CharSequence)) {
-                throw new IllegalDependencyNotation("Supplied Map module notation is invalid. Its value must be a String.");
+        for (final Map.Entry<String, List<String>> classpath : lockfile.getClasspaths().entrySet()) {
+            final ArrayList<RunSetArtifact> jars = new ArrayList<>();
+            for (final String key : classpath.getValue()) {
+                if (found.containsKey(key)) {
+                    jars.add(found.get(key));
+                }
             }
-            final String value = (String) valueObject;
-            map.put(key, value);
+            this.classpathsMemoized.put(classpath.getKey(), Collections.unmodifiableList(jars));
         }
-        return Collections.unmodifiableMap(map);
+        return artifacts;
+    }
+
+    /**
+     * Forces the versions aligned by {@code align} in the configuration.
+     */
+    private void applyAlignments(final Configuration configuration) {
+        if (!this.alignments.isEmpty()) {
+            configuration.getResolutionStrategy().force(this.alignments.toArray());
+        }
+    }
+
+    private List<RunSetArtifact> resolveArtifact(final Dependency dependency) {
+        // Constructing an independent (detached) Configuration so that its dependencies are not affected by other plugins.
+        final Configuration configuration = this.project.getConfigurations().detachedConfiguration(dependency);
+        this.applyAlignments(configuration);
+
+        final ArrayList<RunSetArtifact> artifacts = new ArrayList<>();
+
+        // Getting the JAR files and component IDs.
+        final Map<ComponentIdentifier, List<RunSetArtifact>> jarsByComponent = this.resolveJars(configuration, true);
+        final ArrayList<ComponentIdentifier> componentIds = new ArrayList<>(jarsByComponent.keySet());
+        for (final List<RunSetArtifact> jars : jarsByComponent.values()) {
+            artifacts.addAll(jars);
+        }
+
+        // Recording the plugin's classpath: the plugin's JAR file first, and then its dependencies in the resolved order.
+        final ArrayList<RunSetArtifact> classpath = new ArrayList<>();
+        for (final RunSetArtifact artifact : artifacts) {
+            if (artifact.getGroup().equals(dependency.getGroup()) && artifact.getModule().equals(dependency.getName())) {
+                classpath.add(0, artifact);
+            } else {
+                classpath.add(artifact);
+            }
+        }
+        if (!classpath.isEmpty()) {
+            this.classpathsMemoized.put(classpath.get(0).getCoordinates(), Collections.unmodifiableList(classpath));
+        }
+
+        // Getting the POM files.
+        artifacts.addAll(this.resolvePoms(componentIds));
+        return artifacts;
+    }
+
+    /**
+     * Resolves all the dependencies in one dependency graph, and their POM files in one batched query.
+     */
+    private List<RunSetArtifact> resolveArtifactsInSingleGraph(final List<Dependency> dependencies) {
+        final ArrayList<RunSetArtifact> artifacts = new ArrayList<>();
+        if (dependencies.isEmpty()) {
+            return artifacts;
+        }
+
+        // Constructing an independent (detached) Configuration so that its dependencies are not affected by other plugins.
+        final Configuration configuration = this.project.getConfigurations().detachedConfiguration(
+                dependencies.toArray(new Dependency[dependencies.size()]));
+        this.applyAlignments(configuration);
+
+        final ResolvableDependencies resolvableDependencies = configuration.getIncoming();
+
+        // Getting the JAR files and component IDs.
+        final Map<ComponentIdentifier, List<RunSetArtifact>> jarsByComponent = this.resolveJars(configuration, true);
+        final LinkedHashSet<ComponentIdentifier> componentIds = new LinkedHashSet<>(jarsByComponent.keySet());
+        for (final List<RunSetArtifact> jars : jarsByComponent.values()) {
+            artifacts.addAll(jars);
+        }
+
+        // Recording each plugin's classpath by walking its subgraph in the single graph breadth-first.
+        for (final DependencyResult pluginDependency : resolvableDependencies.getResolutionResult().getRoot().getDependencies()) {
+            if (!(pluginDependency instanceof ResolvedDependencyResult)) {
+                continue;
+            }
+            final ArrayList<RunSetArtifact> classpath = new ArrayList<>();
+            final HashSet<ComponentIdentifier> visited = new HashSet<>();
+            final ArrayDeque<ResolvedComponentResult> queue = new ArrayDeque<>();
+            queue.add(((ResolvedDependencyResult) pluginDependency).getSelected());
+            while (!queue.isEmpty()) {
+                final ResolvedComponentResult component = queue.poll();
+                if (!visited.add(component.getId())) {
+                    continue;
+                }
+                classpath.addAll(jarsByComponent.getOrDefault(component.getId(), Collections.emptyList()));
+                for (final DependencyResult dependencyResult : component.getDependencies()) {
+                    if (dependencyResult instanceof ResolvedDependencyResult) {
+                        queue.add(((ResolvedDependencyResult) dependencyResult).getSelected());
+                    }
+                }
+            }
+            if (!classpath.isEmpty()) {
+                this.classpathsMemoized.put(classpath.get(0).getCoordinates(), Collections.unmodifiableList(classpath));
+            }
+        }
+
+        // Getting the JAR files of the versions evicted by conflict resolution in the single graph, with their transitive dependencies.
+        // Each evicted version is resolved in its own graph. Its dependencies may still be resolved into other versions than in the graph
+        // of the plugin which depends on it, as conflicts with the plugin's other dependencies are not taken into account.
+        for (final ModuleComponentSelector evicted : this.findEvictedModules(resolvableDependencies.getResolutionResult())) {
+            this.logger.info("Resolving {} evicted by conflict resolution in the single graph.", evicted.getDisplayName());
+            final Dependency evictedDependency = this.project.getDependencies().create(
+                    evicted.getGroup() + ":" + evicted.getModule() + ":" + evicted.getVersion());
+            final Configuration evictedConfiguration = this.project.getConfigurations().detachedConfiguration(evictedDependency);
+            this.applyAlignments(evictedConfiguration);
+            for (final Map.Entry<ComponentIdentifier, List<RunSetArtifact>> evictedJars : this.resolveJars(evictedConfiguration, true).entrySet()) {
+                if (componentIds.add(evictedJars.getKey())) {
+                    artifacts.addAll(evictedJars.getValue());
+                }
+            }
+        }
+
+        // Getting the POM files in one batched query.
+        artifacts.addAll(this.resolvePoms(componentIds));
+        return artifacts;
+    }
+
+    /**
+     * Finds the requested versions which are not selected in the graph.
+     *
+     * <p>A dynamic version, such as a range, is not evicted if the selected version satisfies it. A module aligned by {@code align}
+     * is not evicted as its version is forced intentionally.
+     */
+    private List<ModuleComponentSelector> findEvictedModules(final ResolutionResult resolutionResult) {
+        final HashSet<String> alignedModules = new HashSet<>();
+        for (final String alignment : this.alignments) {
+            alignedModules.add(alignment.substring(0, alignment.lastIndexOf(':')));
+        }
+
+        final LinkedHashMap<String, ModuleComponentSelector> evicted = new LinkedHashMap<>();
+        for (final DependencyResult dependencyResult : resolutionResult.getAllDependencies()) {
+            if (!(dependencyResult instanceof ResolvedDependencyResult)) {
+                continue;
+            }
+            final ComponentSelector requested = dependencyResult.getRequested();
+            final ComponentIdentifier selected = ((ResolvedDependencyResult) dependencyResult).getSelected().getId();
+            if (!(requested instanceof ModuleComponentSelector) || !(selected instanceof ModuleComponentIdentifier)) {
+                continue;
+            }
+            final ModuleComponentSelector requestedModule = (ModuleComponentSelector) requested;
+            if (requestedModule.getVersion().isEmpty()
+                    || MavenVersionRange.isSatisfiedBy(requestedModule.getVersion(), ((ModuleComponentIdentifier) selected).getVersion())
+                    || alignedModules.contains(requestedModule.getGroup() + ":" + requestedModule.getModule())) {
+                continue;
+            }
+            evicted.putIfAbsent(requestedModule.getDisplayName(), requestedModule);
+        }
+        return new ArrayList<>(evicted.values());
+    }
+
+    private List<RunSetArtifact> resolvePoms(final Collection<ComponentIdentifier> componentIds) {
+        final long startNanos = System.nanoTime();
+        final ArrayList<RunSetArtifact> artifacts = new ArrayList<>();
+        final ArrayList<ComponentIdentifier> missingComponentIds = new ArrayList<>();
+        for (final ComponentIdentifier componentId : componentIds) {
+            final RunSetArtifact local = this.findInLocalRepositories(componentId, "pom");
+            if (local != null) {
+                artifacts.add(local);
+            } else {
+                missingComponentIds.add(componentId);
+            }
+        }
+        if (missingComponentIds.isEmpty()) {
+            return artifacts;
+        }
+
+        final ArtifactResolutionResult artifactResolutionResult = this.project.getDependencies()
+                .createArtifactResolutionQuery()
+                .forComponents(missingComponentIds)
+                .withArtifacts(MavenModule.class, MavenPomArtifact.class)
+                .execute();
+        for (final ComponentArtifactsResult componentArtifactResult : artifactResolutionResult.getResolvedComponents()) {
+            for (final ArtifactResult artifactResult : componentArtifactResult.getArtifacts(MavenPomArtifact.class)) {
+                if (artifactResult instanceof ResolvedArtifactResult) {
+                    final ResolvedArtifactResult resolvedArtifactResult = (ResolvedArtifactResult) artifactResult;
+                    artifacts.add(this.fromArtifact(resolvedArtifactResult, "pom"));
+                }
+            }
+        }
+        if (this.resolvePomsNanos != null) {
+            this.resolvePomsNanos += System.nanoTime() - startNanos;
+        }
+        return artifacts;
+    }
+
+    /**
+     * Resolves the JRuby artifact added by {@code jruby}, or returns {@code null} if it is not added.
+     *
+     * <p>It is called through {@link #resolvedJruby} only when the artifact is really needed. The result is memoized.
+     */
+    private synchronized RunSetArtifact resolveJruby() {
+        if (this.jrubyDependency == null) {
+            return null;
+        }
+
+        if (this.resolvedJrubyMemoized == null && this.readLockfileToInstall() != null) {
+            // The JRuby artifact is fetched together with the other artifacts in the lockfile.
+            this.resolveArtifacts();
+        }
+
+        if (this.resolvedJrubyMemoized == null) {
+            // Constructing an independent (detached) Configuration so that its dependencies are not affected by other plugins.
+            final Configuration configuration = this.project.getConfigurations().detachedConfiguration(this.jrubyDependency);
+
+            // Getting the JAR file.
+            final ArrayList<RunSetArtifact> jars = new ArrayList<>();
+            for (final List<RunSetArtifact> componentJars : this.resolveJars(configuration, false).values()) {
+                jars.addAll(componentJars);
+            }
+            if (jars.isEmpty()) {
+                throw new IllegalDependencyNotation("Supplied jruby module notation is unavailable.");
+            }
+            if (jars.size() > 1) {
+                throw new IllegalDependencyNotation("Supplied jruby module notation has dependencies. Specify jruby-complete instead.");
+            }
+
+            this.resolvedJrubyMemoized = jars.get(0);
+        }
+        return this.resolvedJrubyMemoized;
+    }
+
+    /**
+     * Records the files in Gradle's cache of the module components in the resolved dependency graph, before their artifacts are
+     * fetched, so that the report tells the downloaded artifacts from the cached ones.
+     */
+    private void recordCachedFiles(final ResolutionResult resolutionResult) {
+        if (this.cachedFilesBeforeFetch == null) {
+            return;
+        }
+        for (final ResolvedComponentResult component : resolutionResult.getAllComponents()) {
+            if (!(component.getId() instanceof ModuleComponentIdentifier)) {
+                continue;
+            }
+            final ModuleComponentIdentifier id = (ModuleComponentIdentifier) component.getId();
+            // Files are cached as "<group>/<module>/<version>/<SHA-1>/<file name>".
+            final Path versionDir = this.moduleFilesCacheDir().resolve(id.getGroup()).resolve(id.getModule()).resolve(id.getVersion());
+            try (final Stream<Path> files = Files.walk(versionDir, 2)) {
+                files.filter(Files::isRegularFile).forEach(this.cachedFilesBeforeFetch::add);
+            } catch (final NoSuchFileException ex) {
+                // Nothing of the version is cached yet.
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private Path moduleFilesCacheDir() {
+        return this.gradleUserHome.toPath().resolve("caches").resolve("modules-2").resolve("files-2.1");
+    }
+
+    private RunSetArtifact fromArtifact(final ResolvedArtifactResult resolvedArtifactResult, final String artifactType) {
+        final ComponentIdentifier id = resolvedArtifactResult.getId().getComponentIdentifier();
+        final File file = resolvedArtifactResult.getFile();
+
+        if (id instanceof ModuleComponentIdentifier) {
+            final ModuleComponentIdentifier moduleId = (ModuleComponentIdentifier) id;
+            this.logger.info("Cached file: {}", file);
+            return this.toRunSetArtifact(moduleId.getGroup(), moduleId.getModule(), moduleId.getVersion(), artifactType, file);
+        } else if (id instanceof ProjectComponentIdentifier) {
+            throw new IllegalDependencyNotation("Cannot install artifacts for a project component (" + id.getDisplayName() + ")");
+        } else {
+            throw new IllegalDependencyNotation(
+                    "Cannot resolve the artifacts for component "
+                    + id.getDisplayName()
+                    + " with unsupported type "
+                    + id.getClass().getName()
+                    + ".");
+        }
+    }
+
+    private RunSetArtifact toRunSetArtifact(
+            final String group, final String module, final String version, final String artifactType, final File file) {
+        final Path modulePath = moduleToPath(group, module, version);
+        final Path modulePathFromHome = this.m2RepoRelative.toPath().resolve(modulePath);
+        this.logger.lifecycle("Setting to copy {}:{}:{}:{} into {}", group, module, version, artifactType, modulePath);
+        return new RunSetArtifact(group, module, version, artifactType, file, toSlashSeparated(modulePathFromHome.resolve(file.getName())));
+    }
+
+    /**
+     * Resolves the configuration, and returns the JAR files of each resolved component in the resolved order.
+     *
+     * <p>If local repositories are added, the artifacts of each component are looked up in them by their file names, including
+     * classifiers and extensions. Only the components with any artifact missing there are fetched through Gradle's cache.
+     * The components are then in the order of the dependency graph.
+     *
+     * <p>If pruned, the components provided by Embulk core are excluded from the result, and their files are never fetched.
+     */
+    private Map<ComponentIdentifier, List<RunSetArtifact>> resolveJars(final Configuration configuration, final boolean prune) {
+        final LinkedHashMap<ComponentIdentifier, List<RunSetArtifact>> jarsByComponent = new LinkedHashMap<>();
+        final ResolvableDependencies resolvableDependencies = configuration.getIncoming();
+
+        final Set<String> provided = prune ? this.resolveProvidedModules() : Collections.<String>emptySet();
+        this.recordCachedFiles(resolvableDependencies.getResolutionResult());
+        if (!provided.isEmpty()) {
+            for (final ResolvedComponentResult component : resolvableDependencies.getResolutionResult().getAllComponents()) {
+                if (isProvided(component.getId(), provided)) {
+                    this.prunedMemoized.add(component.getId().getDisplayName());
+                }
+            }
+        }
+
+        if (this.localRepositories.isEmpty()) {
+            final ArtifactCollection artifactCollection = provided.isEmpty()
+                    ? resolvableDependencies.getArtifacts()
+                    : resolvableDependencies.artifactView(view -> view.componentFilter(id -> !isProvided(id, provided))).getArtifacts();
+            for (final ResolvedArtifactResult resolvedArtifactResult : artifactCollection.getArtifacts()) {
+                jarsByComponent.computeIfAbsent(resolvedArtifactResult.getId().getComponentIdentifier(), id -> new ArrayList<>())
+                        .add(this.fromArtifact(resolvedArtifactResult, "jar"));
+            }
+            return jarsByComponent;
+        }
+
+        // The artifacts are identified first without fetching their files, so that their file names with classifiers and extensions
+        // are looked up in the local repositories.
+        final LinkedHashMap<ComponentIdentifier, List<ResolvedArtifact>> artifactsByComponent = new LinkedHashMap<>();
+        for (final ResolvedArtifact resolvedArtifact : configuration.getResolvedConfiguration().getResolvedArtifacts()) {
+            artifactsByComponent.computeIfAbsent(resolvedArtifact.getId().getComponentIdentifier(), id -> new ArrayList<>())
+                    .add(resolvedArtifact);
+        }
+
+        final ResolutionResult resolutionResult = resolvableDependencies.getResolutionResult();
+        final ComponentIdentifier rootId = resolutionResult.getRoot().getId();
+        final HashSet<ComponentIdentifier> missingComponentIds = new HashSet<>();
+        for (final ResolvedComponentResult component : resolutionResult.getAllComponents()) {
+            if (component.getId().equals(rootId) || isProvided(component.getId(), provided)) {
+                continue;
+            }
+            final ArrayList<RunSetArtifact> jars = new ArrayList<>();
+            for (final ResolvedArtifact resolvedArtifact : artifactsByComponent.getOrDefault(component.getId(), Collections.emptyList())) {
+                final RunSetArtifact local = this.findInLocalRepositories(component.getId(), resolvedArtifact);
+                if (local == null) {
+                    // The component is fetched through Gradle's cache as a whole if any of its artifacts is missing.
+                    jars.clear();
+                    missingComponentIds.add(component.getId());
+                    break;
+                }
+                jars.add(local);
+            }
+            jarsByComponent.put(component.getId(), jars);
+        }
+
+        if (!missingComponentIds.isEmpty()) {
+            // Only the missing components are fetched through Gradle's cache.
+            final ArtifactCollection missingArtifacts =
+                    resolvableDependencies.artifactView(view -> view.componentFilter(missingComponentIds::contains)).getArtifacts();
+            for (final ResolvedArtifactResult resolvedArtifactResult : missingArtifacts.getArtifacts()) {
+                jarsByComponent.get(resolvedArtifactResult.getId().getComponentIdentifier()).add(this.fromArtifact(resolvedArtifactResult, "jar"));
+            }
+        }
+
+        // Components without any JAR file, such as POM-only modules, are not listed as Gradle does not list them.
+        jarsByComponent.values().removeIf(List::isEmpty);
+        return jarsByComponent;
+    }
+
+    /**
+     * Returns the modules provided by Embulk core as "group:module": the modules added by {@code provided}, and the modules
+     * in the transitive dependencies of {@code org.embulk:embulk-core} of the version set by {@code embulkCore}.
+     *
+     * <p>Only the dependency graph of embulk-core is resolved, and its files are not fetched. The result is memoized.
+     */
+    private synchronized Set<String> resolveProvidedModules() {
+        if (this.providedModulesMemoized == null) {
+            final TreeSet<String> modules = new TreeSet<>(this.providedModules);
+            if (this.embulkCoreVersion != null) {
+                final Configuration configuration = this.project.getConfigurations().detachedConfiguration(
+                        this.project.getDependencies().create("org.embulk:embulk-core:" + this.embulkCoreVersion));
+                for (final ResolvedComponentResult component : configuration.getIncoming().getResolutionResult().getAllComponents()) {
+                    if (component.getId() instanceof ModuleComponentIdentifier) {
+                        final ModuleComponentIdentifier id = (ModuleComponentIdentifier) component.getId();
+                        modules.add(id.getGroup() + ":" + id.getModule());
+                    }
+                }
+                if (!modules.contains("org.embulk:embulk-core")) {
+                    throw new InvalidUserDataException("Supplied embulkCore version " + this.embulkCoreVersion + " is unavailable.");
+                }
+            }
+            this.providedModulesMemoized = Collections.unmodifiableSet(modules);
+        }
+        return this.providedModulesMemoized;
+    }
+
+    private static boolean isProvided(final ComponentIdentifier id, final Set<String> provided) {
+        if (!(id instanceof ModuleComponentIdentifier)) {
+            return false;
+        }
+        final ModuleComponentIdentifier moduleId = (ModuleComponentIdentifier) id;
+        return provided.contains(moduleId.getGroup() + ":" + moduleId.getModule());
+    }
+
+    /**
+     * Returns the resolved artifact found in the local repositories by its file name, or {@code null} if not found.
+     */
+    private RunSetArtifact findInLocalRepositories(final ComponentIdentifier id, final ResolvedArtifact resolvedArtifact) {
+        if (!(id instanceof ModuleComponentIdentifier)) {
+            return null;
+        }
+        final ModuleComponentIdentifier moduleId = (ModuleComponentIdentifier) id;
+        final String classifier = resolvedArtifact.getClassifier();
+        return this.findInLocalRepositories(
+                moduleId.getGroup(),
+                moduleId.getModule(),
+                moduleId.getVersion(),
+                "jar",
+                resolvedArtifact.getName() + "-" + moduleId.getVersion()
+                        + (classifier == null || classifier.isEmpty() ? "" : "-" + classifier)
+                        + "." + resolvedArtifact.getExtension());
+    }
+
+    private RunSetArtifact findInLocalRepositories(final ComponentIdentifier id, final String artifactType) {
+        if (!(id instanceof ModuleComponentIdentifier)) {
+            return null;
+        }
+        final ModuleComponentIdentifier moduleId = (ModuleComponentIdentifier) id;
+        return this.findInLocalRepositories(
+                moduleId.getGroup(),
+                moduleId.getModule(),
+                moduleId.getVersion(),
+                artifactType,
+                moduleId.getModule() + "-" + moduleId.getVersion() + "." + artifactType);
+    }
+
+    /**
+     * Returns the artifact found in the local repositories in the order added, or {@code null} if not found.
+     *
+     * <p>Snapshot versions are never looked up as their files in local repositories may be stale.
+     */
+    private RunSetArtifact findInLocalRepositories(
+            final String group, final String module, final String version, final String artifactType, final String fileName) {
+        if (version.endsWith("-SNAPSHOT")) {
+            return null;
+        }
+        final Path modulePath = moduleToPath(group, module, version);
+        for (final File localRepository : this.localRepositories) {
+            final File file = localRepository.toPath().resolve(modulePath).resolve(fileName).toFile();
+            if (file.isFile()) {
+                this.logger.info("Local file: {}", file);
+                return this.toRunSetArtifact(group, module, version, artifactType, file);
+            }
+        }
+        return null;
+    }
+
+    private void logLocalRepositoryHits(final List<RunSetArtifact> artifacts) {
+        final HashSet<String> paths = new HashSet<>();
+        int found = 0;
+        for (final RunSetArtifact artifact : artifacts) {
+            if (!paths.add(artifact.getPathFromHome())) {
+                continue;
+            }
+            for (final File localRepository : this.localRepositories) {
+                if (artifact.getFile().toPath().startsWith(localRepository.toPath())) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        this.logger.lifecycle("Found {} of {} artifacts in the local repositories.", found, paths.size());
+    }
+
+    private static String toSlashSeparated(final Path path) {
+        final ArrayList<String> names = new ArrayList<>();
+        for (final Path name : path) {
+            names.add(name.toString());
+        }
+        return String.join("/", names);
+    }
+
+    private static Path moduleToPath(final String group, final String module, final String version) {
+        final String[] splitGroup = group.split("\\.");
+        if (splitGroup.length <= 0) {
+            return Paths.get("");
+        }
+
+        final String[] more = new String[splitGroup.length + 2 - 1];
+        for (int i = 1; i < splitGroup.length; i++) {
+            more[i - 1] = splitGroup[i];
+        }
+        more[splitGroup.length - 1] = module;
+        more[splitGroup.length] = version;
+        final Path path = Paths.get(splitGroup[0], more);
+        assert !path.isAbsolute();
+        return path;
+    }
+
+    // https://github.com/gradle/gradle/blob/v8.7.0/platforms/software/dependency-management/src/main/java/org/gradle/api/internal/notations/DependencyStringNotationConverter.java
+    private Dependency dependencyFromCharSequence(final CharSequence dependencyNotation) {
+        final String notationString = dependencyNotation.toString();
+        this.logger.info("Supplied artifact: {}", notationString);
+        return this.project.getDependencies().create(notationString);
+    }
+
+    // https://github.com/gradle/gradle/blob/v8.7.0/subprojects/core/src/main/java/org/gradle/internal/typeconversion/MapNotationConverter.java
+    private Dependency dependencyFromMap(final Map dependencyNotation) {
+        final Map<String, String> notationMap = validateMap(dependencyNotation);
+        this.logger.info("Supplied artifact: {}", notationMap);
+        return this.project.getDependencies().create(notationMap);
+    }
+
+    private static String notationToString(final Object dependencyNotation) {
+        if (dependencyNotation instanceof Map) {
+            return validateMap((Map) dependencyNotation).toString();
+        }
+        return dependencyNotation.toString();
+    }
+
+    private static Map<String, String> validateMap(final Map dependencyNotation) {
+        final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        for (final Map.Entry<Object, Object> entry : castMap(dependencyNotation).entrySet()) {
+            final Object keyObject = entry.getKey();
+            if (!(keyObject instanceof CharSequence)) {
+                throw new IllegalDependencyNotation("Supplied Map module notation is invalid. Its key must be a String.");
+            }
+            final String key = (String) keyObject;
+            if (!ACCEPTABLE_MAP_KEYS.contains(key)) {
+                throw new IllegalDependencyNotation(
+                        "Supplied Map module notation is invalid. Its key must be one of: ["
+                        + String.join(", ", ACCEPTABLE_MAP_KEYS)
+                        + "]");
+            }
+
+            final Object valueObject = entry.getValue();
+            if (!(valueObject instanceof CharSequence)) {
+                throw new IllegalDependencyNotation("Supplied Map module notation is invalid. Its value must be a String.");
+            }
+            final String value = (String) valueObject;
+            map.put(key, value);
+        }
+        return Collections.unmodifiableMap(map);
     }
 
     @SuppressWarnings("unchecked")
@@ -316,65 +1305,1043 @@ public class InstallEmbulkRunSet extends Copy {
         return (Map<Object, Object>) map;
     }
 
-    @Override
-    @TaskAction
-    protected void copy() {
-        if (this.embulkHome == null) {
-            throw new InvalidUserDataException("embulkHome is not supplied.");
+    @Override
+    @TaskAction
+    protected void copy() {
+        if (this.embulkHome == null) {
+            throw new InvalidUserDataException("embulkHome is not supplied.");
+        }
+        if (this.explodedJruby.get() && this.relocatableJruby.get()) {
+            throw new InvalidUserDataException("explodedJruby cannot be used with relocatableJruby.");
+        }
+        if (this.generationsDir != null && this.resolvedJruby.getOrNull() != null && !this.relocatableJruby.get()) {
+            throw new InvalidUserDataException("generations requires relocatableJruby with jruby.");
+        }
+        if (this.generationsDir != null && this.generationsDir.toPath().normalize().startsWith(this.embulkHome.toPath().normalize())) {
+            // The generations would be published into embulkHome, and copied again into each new generation.
+            throw new InvalidUserDataException(
+                    "The generations directory \"" + this.generationsDir + "\" must not be in embulkHome \"" + this.embulkHome + "\".");
+        }
+
+        final RunSetReport report = new RunSetReport(this.getPath(), this.embulkHome.getAbsolutePath());
+        this.report = report;
+        this.reportResolution(report);
+        report.setPruned(this.prunedModules.get());
+
+        if (this.generationsDir == null) {
+            this.install(report);
+        } else {
+            // embulkHome is the staging directory of the generations. It is installed and published under the lock of the generations
+            // so that concurrent installs do not race in it.
+            try (final FileChannel lock = RunSetGenerations.lock(this.generationsDir.toPath())) {
+                this.install(report);
+                this.publishGeneration();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        this.logger.lifecycle(report.summarize());
+        try {
+            final Path reportPath = this.reportFile.get().getAsFile().toPath();
+            report.write(reportPath);
+            this.logger.info("Wrote the report of installEmbulkRunSet: {}", reportPath);
+        } catch (final IOException ex) {
+            // The report is not essential for the installation.
+            this.logger.warn("Failed to write the report of installEmbulkRunSet.", ex);
+        }
+    }
+
+    /**
+     * Installs embulkHome: the lockfile, "embulk.properties" and the other generated files, the copy spec, and the artifacts.
+     */
+    private void install(final RunSetReport report) {
+        if (this.lockfile != null) {
+            final long startNanos = System.nanoTime();
+            try {
+                this.verifyOrWriteLockfile();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            report.addPhase(RunSetReport.PHASE_LOCKFILE, System.nanoTime() - startNanos);
+        }
+
+        final long propertiesStartNanos = System.nanoTime();
+        final Map<String, PluginIndex.Entry> pluginTypes;
+        try {
+            pluginTypes = this.pluginIndex.get() ? this.writePluginIndex() : Collections.<String, PluginIndex.Entry>emptyMap();
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (this.embulkPropertiesEnabled) {
+            this.writeEmbulkProperties(pluginTypes);
+        }
+        if (this.classpathManifest.get()) {
+            try {
+                this.writeClasspathManifests();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        report.addPhase(RunSetReport.PHASE_PROPERTIES, System.nanoTime() - propertiesStartNanos);
+
+        final long copySpecStartNanos = System.nanoTime();
+        super.copy();
+        report.addPhase(RunSetReport.PHASE_COPY_SPEC, System.nanoTime() - copySpecStartNanos);
+
+        // The artifacts are installed by the task itself, not through the copy spec, so that the copy spec has no custom action
+        // to relocate the files, which would disable the build cache.
+        final long installStartNanos = System.nanoTime();
+        this.installArtifacts(this.resolvedArtifacts.get());
+        this.installExplodedJruby();
+        this.installGems();
+        report.addPhase(RunSetReport.PHASE_INSTALL, System.nanoTime() - installStartNanos);
+    }
+
+    /**
+     * Writes the Embulk System Properties into "embulk.properties" in embulkHome.
+     *
+     * <p>It is written directly, not copied through the copy spec from a generated file, so that no generated file is fingerprinted
+     * as an input. Its content is determined by the inputs: the Embulk System Properties, the resolved artifacts, and the options.
+     */
+    private void writeEmbulkProperties(final Map<String, PluginIndex.Entry> pluginTypes) {
+        final TreeMap<String, String> properties = new TreeMap<>(this.getEmbulkSystemProperties());
+        for (final PluginIndex.Entry entry : pluginTypes.values()) {
+            properties.putIfAbsent(entry.getPropertyKey(), entry.getPropertyValue());
+        }
+        final RunSetArtifact jruby = this.resolvedJruby.getOrNull();
+        if (jruby != null) {
+            if (this.relocatableJruby.get()) {
+                // Embulk looks for the JRuby artifact in its "m2_repo", which is relative from embulkHome.
+                properties.put("jruby", "maven:" + jruby.getCoordinates());
+            } else if (this.explodedJruby.get()) {
+                // The trailing '/' is required for a directory in the class path, but Path#toUri adds it only for an existing directory.
+                final String uri = this.embulkHome.toPath().resolve(explodedJrubyPath(jruby)).toUri().toString();
+                properties.put("jruby", uri.endsWith("/") ? uri : uri + "/");
+            } else {
+                properties.put("jruby", this.embulkHome.toPath().resolve(jruby.getPathFromHome()).toUri().toString());
+            }
+        }
+        if (this.classpathManifest.get()) {
+            for (final Map.Entry<String, List<RunSetArtifact>> classpath : this.resolvedClasspaths.get().entrySet()) {
+                properties.put("classpath_manifest." + classpath.getKey(), classpathManifestPath(classpath.getValue().get(0)));
+            }
+        }
+        try {
+            EmbulkProperties.write(this.embulkHome.toPath().resolve("embulk.properties"), properties);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Publishes embulkHome as a new generation, and switches "current" to it.
+     */
+    private void publishGeneration() {
+        final List<String> linkedPaths = Arrays.asList(toSlashSeparated(this.m2RepoRelative.toPath()), EXPLODED_JRUBY_DIR, GEM_HOME_RELATIVE);
+        final int generation;
+        try {
+            generation = RunSetGenerations.publish(this.embulkHome.toPath(), linkedPaths, this.generationsDir.toPath(), this.keepGenerations);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        this.logger.lifecycle("Published embulkHome as the generation {} in {}", generation, this.generationsDir);
+    }
+
+    /**
+     * Scans the plugin JAR files, and writes the plugin index into embulkHome.
+     */
+    private Map<String, PluginIndex.Entry> writePluginIndex() throws IOException {
+        final Map<String, PluginIndex.Entry> entries = PluginIndex.scan(this.resolvedClasspaths.get());
+        final Path path = this.embulkHome.toPath().resolve(PluginIndex.FILE_NAME);
+        PluginIndex.write(path, entries);
+        this.logger.lifecycle("Indexed {} plugin types into {}", entries.size(), path);
+        return entries;
+    }
+
+    /**
+     * Explodes the JRuby artifact into embulkHome if {@code explodedJruby} is set.
+     */
+    private void installExplodedJruby() {
+        final RunSetArtifact jruby = this.resolvedJruby.getOrNull();
+        if (!this.explodedJruby.get() || jruby == null) {
+            return;
+        }
+        final Path target = this.embulkHome.toPath().resolve(explodedJrubyPath(jruby));
+        try {
+            if (ExplodedJruby.install(jruby.getFile().toPath(), target)) {
+                this.logger.lifecycle("Exploded JRuby into {}", target);
+                this.setDidWork(true);
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Installs the gems into embulkHome from the gem cache, after installing them into the cache by JRuby if not cached yet.
+     */
+    private void installGems() {
+        final ArrayList<Path> gems = new ArrayList<>();
+        for (final File file : this.gemFiles.getFiles()) {
+            gems.add(file.toPath());
+        }
+        final Path gemHome = this.embulkHome.toPath().resolve(GEM_HOME_RELATIVE);
+        if (gems.isEmpty()) {
+            // The gems installed previously are deleted only if installed by this plugin.
+            try {
+                if (GemCache.uninstall(gemHome)) {
+                    this.logger.lifecycle("Deleted the gems no longer configured in {}", gemHome);
+                    this.setDidWork(true);
+                }
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return;
+        }
+        final RunSetArtifact jruby = this.resolvedJruby.getOrNull();
+        if (jruby == null) {
+            throw new InvalidUserDataException("gem requires jruby to install the gems.");
+        }
+
+        try {
+            final String key = GemCache.key(jruby.getCoordinates(), gems);
+            final Path cache = this.store.isPresent()
+                    ? this.store.get().getAsFile().toPath().resolve("gems")
+                    : this.gradleUserHome.toPath().resolve("caches").resolve("embulk-runset").resolve("gems");
+            final Path cached = cache.resolve(key);
+            if (Files.isDirectory(cached)) {
+                this.logger.info("Found the gem set in the gem cache: {}", cached);
+            } else {
+                final Path temporary = GemCache.newTemporaryDirectory(cache, key);
+                this.logger.lifecycle("Installing {} gems by JRuby {} into the gem cache.", gems.size(), jruby.getVersion());
+                this.execGemInstall(jruby.getFile().toPath(), gems, temporary);
+                GemCache.commit(temporary, cached);
+            }
+
+            if (GemCache.install(this.installMode.get(), cached, gemHome, key)) {
+                this.logger.lifecycle("Installed {} gems into {}", gems.size(), gemHome);
+                this.setDidWork(true);
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Runs {@code gem install --local} by JRuby in the directory where the gem files are gathered so that it finds the dependencies there.
+     */
+    private void execGemInstall(final Path jrubyJar, final List<Path> gems, final Path installDir) throws IOException {
+        final Path workingDir = this.getTemporaryDir().toPath().resolve("gems");
+        AtomicFiles.deleteRecursively(workingDir);
+        Files.createDirectories(workingDir);
+        final ArrayList<String> args = new ArrayList<>(Arrays.asList(
+                "-cp", jrubyJar.toAbsolutePath().toString(), "org.jruby.Main",
+                "-S", "gem", "install", "--local", "--no-document", "--install-dir", installDir.toAbsolutePath().toString()));
+        for (final Path gem : gems) {
+            Files.copy(gem, workingDir.resolve(gem.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            args.add(gem.getFileName().toString());
+        }
+        this.getExecOperations().exec(spec -> {
+            spec.setExecutable(this.gemJavaExecutable.getOrElse(
+                    new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath()));
+            spec.setArgs(args);
+            spec.setWorkingDir(workingDir.toFile());
+            // The gems installed for the user running Gradle are not visible.
+            spec.environment("GEM_HOME", installDir.toAbsolutePath().toString());
+            spec.environment("GEM_PATH", installDir.toAbsolutePath().toString());
+        });
+    }
+
+    /**
+     * Returns the path of the exploded JRuby directory relative from embulkHome, separated by '/'.
+     */
+    private static String explodedJrubyPath(final RunSetArtifact jruby) {
+        final String fileName = jruby.getFile().getName();
+        return EXPLODED_JRUBY_DIR + "/" + (fileName.endsWith(".jar") ? fileName.substring(0, fileName.length() - ".jar".length()) : fileName);
+    }
+
+    /**
+     * Records the resolution into the report.
+     *
+     * <p>The resolution timings are unknown if the artifacts are resolved when the configuration cache entry is stored.
+     * An artifact is considered downloaded if its file in Gradle's cache was not there when its dependency graph was resolved.
+     * It is unknown for POM files as they are fetched together with the dependency graph.
+     */
+    private void reportResolution(final RunSetReport report) {
+        final List<RunSetArtifact> artifacts = this.resolvedArtifacts.get();
+        if (this.resolveNanos != null) {
+            report.addPhase(RunSetReport.PHASE_RESOLVE, this.resolveNanos - this.resolvePomsNanos);
+            report.addPhase(RunSetReport.PHASE_RESOLVE_POMS, this.resolvePomsNanos);
+        }
+        for (final RunSetArtifact artifact : artifacts) {
+            final File file = artifact.getFile();
+            final Boolean downloaded;
+            if (this.cachedFilesBeforeFetch == null || artifact.getType().equals("pom")) {
+                downloaded = null;
+            } else {
+                // Files in local repositories, and in "file:" repositories, are used in place, not downloaded.
+                downloaded = file.toPath().startsWith(this.moduleFilesCacheDir())
+                        && !this.cachedFilesBeforeFetch.contains(file.toPath());
+            }
+            report.addArtifact(artifact, file.length(), downloaded);
+        }
+    }
+
+    /**
+     * Verifies the checksums of the resolved artifacts with the lockfile if installed from the lockfile, or writes the lockfile otherwise.
+     */
+    private void verifyOrWriteLockfile() throws IOException {
+        final List<RunSetArtifact> artifacts = this.resolvedArtifacts.get();
+        final Path lockfilePath = this.lockfile.toPath();
+
+        if (!this.updateLockfile && Files.exists(lockfilePath)) {
+            final HashMap<String, String> checksums = new HashMap<>();
+            for (final RunSetLockfile.Entry entry : RunSetLockfile.read(lockfilePath).getEntries()) {
+                checksums.put(entry.getKey(), entry.getSha256());
+            }
+            for (final RunSetArtifact artifact : artifacts) {
+                final String key = artifact.getKey();
+                final String actual = this.sha256Of(artifact);
+                if (!actual.equals(checksums.get(key))) {
+                    throw new InvalidUserDataException(
+                            "Checksum mismatch for " + key + ": expected " + checksums.get(key) + " in the run set lockfile,"
+                            + " but " + actual + " in " + artifact.getFile() + ".");
+                }
+            }
+            return;
+        }
+
+        final RunSetArtifact jruby = this.resolvedJruby.getOrNull();
+        final ArrayList<RunSetLockfile.Entry> entries = new ArrayList<>();
+        for (final RunSetArtifact artifact : artifacts) {
+            final boolean isJruby = jruby != null && jruby.getPathFromHome().equals(artifact.getPathFromHome());
+            entries.add(new RunSetLockfile.Entry(
+                    isJruby ? "jruby" : "artifact",
+                    artifact.getGroup(),
+                    artifact.getModule(),
+                    artifact.getVersion(),
+                    artifact.getType(),
+                    artifact.getFile().getName(),
+                    this.sha256Of(artifact)));
+        }
+        final LinkedHashMap<String, List<String>> classpaths = new LinkedHashMap<>();
+        for (final Map.Entry<String, List<RunSetArtifact>> classpath : this.resolvedClasspaths.get().entrySet()) {
+            final ArrayList<String> keys = new ArrayList<>();
+            for (final RunSetArtifact artifact : classpath.getValue()) {
+                keys.add(artifact.getKey());
+            }
+            classpaths.put(classpath.getKey(), keys);
+        }
+        new RunSetLockfile(this.notations, entries, classpaths).write(lockfilePath);
+        this.logger.lifecycle("Wrote the run set lockfile \"{}\".", lockfilePath);
+    }
+
+    /**
+     * Writes the classpath manifest of each plugin next to the plugin's POM file.
+     */
+    private void writeClasspathManifests() throws IOException {
+        for (final List<RunSetArtifact> classpath : this.resolvedClasspaths.get().values()) {
+            final Path path = this.embulkHome.toPath().resolve(classpathManifestPath(classpath.get(0)));
+            AtomicFiles.write(path, temporary -> {
+                try (final BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                    writer.write("# Generated by the \"org.embulk.embulk-runset\" Gradle plugin.\n");
+                    for (final RunSetArtifact artifact : classpath) {
+                        writer.write(artifact.getPathFromHome());
+                        writer.write("\n");
+                    }
+                }
+            });
+        }
+    }
+
+    private static String classpathManifestPath(final RunSetArtifact plugin) {
+        final String pluginPath = plugin.getPathFromHome();
+        return pluginPath.substring(0, pluginPath.lastIndexOf('/') + 1) + plugin.getModule() + "-" + plugin.getVersion() + ".classpath";
+    }
+
+    /**
+     * Stores the artifact file in the content-addressed store unless it is stored already, and returns the artifact from the store.
+     */
+    private RunSetArtifact storeArtifact(final RunSetArtifact artifact) throws IOException {
+        final String sha256 = this.sha256Of(artifact);
+        final Path stored = this.store.get().getAsFile().toPath().resolve("sha256").resolve(sha256.substring(0, 2)).resolve(sha256);
+        if (!Files.isRegularFile(stored)) {
+            // Another run set may be storing the same file concurrently. It writes a temporary file, and then renames it atomically.
+            // The file keeps the default permissions as it is shared with embulkHome by hard links.
+            AtomicFiles.copy(artifact.getFile().toPath(), stored);
+        }
+        final RunSetArtifact fromStore = artifact.withFile(stored.toFile());
+        synchronized (this) {
+            this.sha256Memoized.put(fromStore.getFile(), sha256);
         }
+        return fromStore;
+    }
 
-        if (this.jrubyRelative != null) {
-            this.embulkSystemProperties.setProperty(
-                    "jruby",
-                    this.embulkHome.resolve(this.jrubyRelative).toUri().toString());
+    private synchronized String sha256Of(final RunSetArtifact artifact) throws IOException {
+        if (this.sha256Memoized == null) {
+            this.sha256Memoized = new HashMap<>();
+        }
+        String sha256 = this.sha256Memoized.get(artifact.getFile());
+        if (sha256 == null) {
+            sha256 = RunSetManifest.sha256(artifact.getFile().toPath());
+            this.sha256Memoized.put(artifact.getFile(), sha256);
         }
+        return sha256;
+    }
 
-        if (this.embulkSystemPropertiesSource != null) {
-            try (final OutputStream out = Files.newOutputStream(this.embulkSystemPropertiesSource)) {
-                this.embulkSystemProperties.store(
-                        out, "Generated by the \"org.embulk.embulk-runset\" Gradle plugin.");
-            } catch (final IOException ex) {
-                throw new UncheckedIOException(ex);
-            }
+    /**
+     * Returns the Embulk System Properties set by {@code embulkSystemProperty}, sorted by their keys.
+     *
+     * <p>The "jruby" property is not included as it is set from the resolved JRuby artifact at execution time.
+     */
+    @Input
+    public SortedMap<String, String> getEmbulkSystemProperties() {
+        final TreeMap<String, String> properties = new TreeMap<>();
+        for (final String key : this.embulkSystemProperties.stringPropertyNames()) {
+            properties.put(key, this.embulkSystemProperties.getProperty(key));
         }
-        super.copy();
+        return Collections.unmodifiableSortedMap(properties);
+    }
+
+    /**
+     * Returns the resolved artifacts to be installed, each as its coordinates, type, and path from embulkHome.
+     *
+     * <p>They are sorted as the order of resolution results is not stable.
+     */
+    @Input
+    public Provider<List<String>> getResolvedArtifactPaths() {
+        return this.resolvedArtifacts.map(artifacts -> {
+            final TreeSet<String> paths = new TreeSet<>();
+            for (final RunSetArtifact artifact : artifacts) {
+                paths.add(artifact.getCoordinates() + ":" + artifact.getType() + " " + artifact.getPathFromHome());
+            }
+            return new ArrayList<>(paths);
+        });
+    }
+
+    /**
+     * Returns the resolved artifact files in Gradle's cache. Only their names and contents are inputs, not their paths in the cache.
+     *
+     * <p>The task is skipped if there is no artifact to install, and no "embulk.properties" to write.
+     */
+    @InputFiles
+    @SkipWhenEmpty
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public FileCollection getResolvedArtifactFiles() {
+        return this.resolvedArtifactFiles;
+    }
+
+    /**
+     * Returns an empty placeholder file if "embulk.properties" is to be written, so that the task is not skipped only with
+     * Embulk System Properties. The properties themselves are an input as {@link #getEmbulkSystemProperties}.
+     */
+    @InputFiles
+    @SkipWhenEmpty
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public FileCollection getEmbulkPropertiesPlaceholder() {
+        return this.embulkPropertiesPlaceholder;
+    }
+
+    @Input
+    public Provider<String> getInstallModeName() {
+        return this.installMode.map(InstallMode::toString);
+    }
+
+    @Input
+    public Provider<Boolean> getSyncEnabled() {
+        return this.sync;
+    }
+
+    @Input
+    public Provider<Boolean> getClasspathManifestEnabled() {
+        return this.classpathManifest;
+    }
+
+    @Input
+    public Provider<Boolean> getChecksumsEnabled() {
+        return this.checksums;
+    }
+
+    @Input
+    public Provider<Boolean> getRepackStoredEnabled() {
+        return this.repackStored;
+    }
+
+    @Input
+    public Provider<Boolean> getRelocatableJrubyEnabled() {
+        return this.relocatableJruby;
+    }
+
+    @Input
+    public Provider<Boolean> getExplodedJrubyEnabled() {
+        return this.explodedJruby;
+    }
+
+    @Input
+    public Provider<Boolean> getPluginIndexEnabled() {
+        return this.pluginIndex;
+    }
+
+    /**
+     * Returns whether the artifacts are installed from the store. The path of the store is not an input as it does not change
+     * the installed contents, and it is specific to each host.
+     */
+    @Input
+    public Provider<Boolean> getStoreEnabled() {
+        return this.store.map(store -> true).orElse(false);
+    }
+
+    /**
+     * Returns the notations added by {@code artifact}, {@code jruby}, {@code align}, {@code embulkCore}, and {@code provided}, in the order added.
+     */
+    @Input
+    public List<String> getNotations() {
+        return Collections.unmodifiableList(this.notations);
+    }
+
+    /**
+     * Returns the directory relative from the project directory, and the number of generations to keep, set by {@code generations}.
+     */
+    @Input
+    @Optional
+    public String getGenerations() {
+        return this.generationsInput;
+    }
+
+    /**
+     * Returns the run set lockfile to install the artifacts from, or {@code null} if it is to be written.
+     *
+     * <p>Only its contents are an input so that an edited lockfile installs the artifacts again.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public File getLockfile() {
+        return this.isLockfileToBeWritten() ? null : this.lockfile;
+    }
+
+    /**
+     * Returns the gem files added by {@code gem}.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public FileCollection getGemFiles() {
+        return this.gemFiles;
+    }
+
+    /**
+     * Returns the {@code java} executable set by {@code gemJavaExecutable}, or empty to run the one running Gradle.
+     *
+     * <p>The default is not an input as its path is specific to each host.
+     */
+    @Input
+    @Optional
+    public Provider<String> getGemJavaExecutable() {
+        return this.gemJavaExecutable;
+    }
+
+    /**
+     * Returns the JSON report written on every execution.
+     *
+     * <p>It is an output so that it is kept when the task is up-to-date, and restored together with embulkHome from the build cache.
+     * It then describes the execution which installed embulkHome.
+     */
+    @OutputFile
+    public Provider<RegularFile> getReportFile() {
+        return this.reportFile;
+    }
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    @Inject
+    protected abstract BuildFeatures getBuildFeatures();
+
+    /**
+     * Returns the store set by {@code store} to set its convention from the plugin.
+     */
+    DirectoryProperty storeDirectory() {
+        return this.store;
+    }
+
+    /**
+     * Returns embulkHome lazily for the other tasks wired by the plugin.
+     */
+    Provider<File> embulkHomeProvider() {
+        return this.project.provider(() -> this.embulkHome);
+    }
+
+    /**
+     * Returns the Maven repository directory relative from embulkHome, separated by '/', lazily for the other tasks wired by the plugin.
+     */
+    Provider<String> m2RepoRelativeProvider() {
+        return this.project.provider(() -> toSlashSeparated(this.m2RepoRelative.toPath()));
+    }
+
+    /**
+     * Returns the resolved artifacts lazily for the other tasks wired by the plugin.
+     */
+    Provider<List<RunSetArtifact>> resolvedArtifactsProvider() {
+        return this.resolvedArtifacts;
+    }
+
+    /**
+     * Returns the classpath of each plugin lazily for the other tasks wired by the plugin.
+     */
+    Provider<Map<String, List<RunSetArtifact>>> resolvedClasspathsProvider() {
+        return this.resolvedClasspaths;
+    }
+
+    /**
+     * Returns the JAR files of {@code org.embulk:embulk-core} of the version set by {@code embulkCore} with its dependencies,
+     * or empty if not set, lazily for the other tasks wired by the plugin.
+     */
+    Provider<List<File>> embulkCoreFiles() {
+        return this.project.provider(() -> {
+            if (this.embulkCoreVersion == null) {
+                return Collections.<File>emptyList();
+            }
+            final Configuration configuration = this.project.getConfigurations().detachedConfiguration(
+                    this.project.getDependencies().create("org.embulk:embulk-core:" + this.embulkCoreVersion));
+            return new ArrayList<>(configuration.getFiles());
+        });
+    }
+
+    /**
+     * Returns the JAR files to be installed in embulkHome except for JRuby, sorted by their paths, for the other tasks wired by the plugin.
+     */
+    Provider<List<File>> installedJarFiles() {
+        return this.project.provider(() -> {
+            if (this.embulkHome == null) {
+                return Collections.<File>emptyList();
+            }
+            final RunSetArtifact jruby = this.resolveJruby();
+            final TreeSet<String> paths = new TreeSet<>();
+            for (final RunSetArtifact artifact : this.resolveArtifacts()) {
+                if (artifact.getType().equals("jar") && (jruby == null || !artifact.getPathFromHome().equals(jruby.getPathFromHome()))) {
+                    paths.add(artifact.getPathFromHome());
+                }
+            }
+            final ArrayList<File> files = new ArrayList<>();
+            for (final String path : paths) {
+                files.add(new File(this.embulkHome, path));
+            }
+            return files;
+        });
+    }
+
+    /**
+     * Returns the paths of the files to be installed in embulkHome split into layers, for the other tasks wired by the plugin.
+     *
+     * <p>An artifact is in the "plugin:" layer of a plugin if only the plugin has it in its classpath. It is in the "lib" layer
+     * if multiple plugins have it, or no plugin has it. The gems installed by {@code gem} are in the "gems" layer. The layers are
+     * ordered as "jruby", "lib", the plugins, "gems", and "properties".
+     */
+    Provider<Map<String, List<String>>> layeredPaths() {
+        return this.project.provider(() -> {
+            final List<RunSetArtifact> artifacts = this.resolveArtifacts();
+            final RunSetArtifact jruby = this.resolveJruby();
+            final Map<String, List<RunSetArtifact>> classpaths = this.classpathsMemoized;
+
+            final HashMap<String, TreeSet<String>> pluginsByCoordinates = new HashMap<>();
+            for (final Map.Entry<String, List<RunSetArtifact>> classpath : classpaths.entrySet()) {
+                for (final RunSetArtifact artifact : classpath.getValue()) {
+                    pluginsByCoordinates.computeIfAbsent(artifact.getCoordinates(), coordinates -> new TreeSet<>()).add(classpath.getKey());
+                }
+            }
+
+            final TreeSet<String> jrubyPaths = new TreeSet<>();
+            final TreeSet<String> libPaths = new TreeSet<>();
+            final TreeMap<String, TreeSet<String>> pluginPaths = new TreeMap<>();
+            for (final RunSetArtifact artifact : artifacts) {
+                final TreeSet<String> plugins = pluginsByCoordinates.get(artifact.getCoordinates());
+                final TreeSet<String> paths;
+                if (jruby != null && artifact.getCoordinates().equals(jruby.getCoordinates())) {
+                    paths = jrubyPaths;
+                } else if (plugins != null && plugins.size() == 1) {
+                    paths = pluginPaths.computeIfAbsent(plugins.first(), plugin -> new TreeSet<>());
+                } else {
+                    paths = libPaths;
+                }
+                paths.add(artifact.getPathFromHome());
+                if (paths == jrubyPaths && this.explodedJruby.get()) {
+                    paths.add(explodedJrubyPath(jruby));
+                }
+                if (this.checksums.get()) {
+                    paths.addAll(ChecksumSidecars.sidecarPaths(artifact.getPathFromHome()));
+                }
+                if (this.repackStored.get() && artifact.getPathFromHome().endsWith(".jar")) {
+                    paths.add(artifact.getPathFromHome() + StoredJarRepacker.ORIGINAL_CHECKSUM_SUFFIX);
+                }
+            }
+            if (this.classpathManifest.get()) {
+                for (final Map.Entry<String, List<RunSetArtifact>> classpath : classpaths.entrySet()) {
+                    pluginPaths.computeIfAbsent(classpath.getKey(), plugin -> new TreeSet<>()).add(classpathManifestPath(classpath.getValue().get(0)));
+                }
+            }
+
+            final LinkedHashMap<String, List<String>> layers = new LinkedHashMap<>();
+            layers.put("jruby", new ArrayList<>(jrubyPaths));
+            layers.put("lib", new ArrayList<>(libPaths));
+            for (final Map.Entry<String, TreeSet<String>> plugin : pluginPaths.entrySet()) {
+                layers.put("plugin:" + plugin.getKey(), new ArrayList<>(plugin.getValue()));
+            }
+            // The gem home is packaged as a directory. The layer is skipped if no gem is installed.
+            layers.put("gems", Collections.singletonList(GEM_HOME_RELATIVE));
+            layers.put("properties", this.pluginIndex.get()
+                    ? Arrays.asList("embulk.properties", PluginIndex.FILE_NAME) : Collections.singletonList("embulk.properties"));
+            return layers;
+        });
     }
 
-    private synchronized void createPropertiesSourceAndSetToCopy() {
-        if (this.embulkSystemPropertiesSource == null) {
-            final File temporaryDir = this.getTemporaryDir();
-            final Path path;
+    /**
+     * Installs the artifacts by the task itself, instead of the copy spec.
+     */
+    private void installArtifacts(final List<RunSetArtifact> artifacts) {
+        // Deduplicating by the target path in the same way as DuplicatesStrategy.EXCLUDE.
+        final LinkedHashMap<String, RunSetArtifact> deduplicated = new LinkedHashMap<>();
+        for (final RunSetArtifact artifact : artifacts) {
+            deduplicated.putIfAbsent(artifact.getPathFromHome(), artifact);
+        }
+
+        try {
+            AtomicFiles.deleteTemporaryFiles(this.embulkHome.toPath().resolve(this.m2RepoRelative.toPath()));
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        if (this.store.isPresent()) {
             try {
-                path = Files.createTempFile(temporaryDir.toPath(), "embulk.", ".properties");
+                for (final Map.Entry<String, RunSetArtifact> entry : deduplicated.entrySet()) {
+                    entry.setValue(this.storeArtifact(entry.getValue()));
+                }
             } catch (final IOException ex) {
                 throw new UncheckedIOException(ex);
             }
+        }
+
+        if (!this.sync.get()) {
+            this.installFiles(deduplicated.values());
+            return;
+        }
+
+        try {
+            this.syncFiles(deduplicated.values());
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Installs only the artifacts changed from the manifest, and deletes the artifacts no longer in the run set.
+     */
+    private void syncFiles(final Collection<RunSetArtifact> artifacts) throws IOException {
+        final Path home = this.embulkHome.toPath();
+        final RunSetManifest previous = RunSetManifest.read(home);
+
+        final ArrayList<RunSetArtifact> changed = new ArrayList<>();
+        for (final RunSetArtifact artifact : artifacts) {
+            final Path source = artifact.getFile().toPath();
+            final long size = Files.size(source);
+            final String sha256 = this.sha256Of(artifact);
+
+            final RunSetManifest.Entry entry = previous.get(artifact.getPathFromHome());
+            final Path target = home.resolve(artifact.getPathFromHome());
+            if (entry != null
+                    && entry.getSize() == size
+                    && entry.getSha256().equals(sha256)
+                    && Files.isRegularFile(target)
+                    && (this.isRepacked(target) ? Files.isRegularFile(StoredJarRepacker.originalChecksumFile(target)) : Files.size(target) == size)
+                    && (!this.checksums.get() || ChecksumSidecars.exist(target))) {
+                this.report.markUnchanged(artifact);
+                continue;
+            }
+            changed.add(artifact);
+        }
+
+        this.logger.lifecycle("{} artifacts are unchanged in embulkHome.", artifacts.size() - changed.size());
+        if (!changed.isEmpty()) {
+            this.installFiles(changed);
+        }
+
+        // The installed files are recorded after they are installed, so that verifyEmbulkRunSet can check them quickly by their sizes
+        // and modification times. Only a repacked JAR file differs from its source artifact, and it is hashed again only when changed.
+        final HashSet<String> changedPaths = new HashSet<>();
+        for (final RunSetArtifact artifact : changed) {
+            changedPaths.add(artifact.getPathFromHome());
+        }
+        final RunSetManifest next = new RunSetManifest();
+        for (final RunSetArtifact artifact : artifacts) {
+            final Path target = home.resolve(artifact.getPathFromHome());
+            final String sha256 = this.sha256Of(artifact);
+            final RunSetManifest.Entry entry = previous.get(artifact.getPathFromHome());
+            final String installedSha256;
+            if (!this.isRepacked(target)) {
+                installedSha256 = sha256;
+            } else if (!changedPaths.contains(artifact.getPathFromHome()) && entry != null && entry.getInstalledSha256() != null) {
+                installedSha256 = entry.getInstalledSha256();
+            } else {
+                installedSha256 = RunSetManifest.sha256(target);
+            }
+            next.put(
+                    artifact.getPathFromHome(),
+                    Files.size(artifact.getFile().toPath()),
+                    sha256,
+                    Files.size(target),
+                    Files.getLastModifiedTime(target).toMillis(),
+                    installedSha256);
+        }
+
+        int deleted = 0;
+        for (final RunSetManifest.Entry entry : previous.getEntries()) {
+            if (next.get(entry.getPath()) == null) {
+                final Path stale = home.resolve(entry.getPath());
+                this.logger.info("Deleting {} as it is no longer in the run set.", stale);
+                if (Files.deleteIfExists(stale)) {
+                    deleted++;
+                }
+                ChecksumSidecars.deleteIfExist(stale);
+                Files.deleteIfExists(StoredJarRepacker.originalChecksumFile(stale));
+                deleteEmptyParents(stale, home);
+            }
+        }
+        if (deleted > 0) {
+            this.logger.lifecycle("Deleted {} artifacts no longer in the run set.", deleted);
+            this.setDidWork(true);
+        }
+
+        next.write(home);
+    }
+
+    private boolean isJrubyRelocatable() {
+        return this.relocatableJruby.get() || this.resolvedJruby.getOrNull() == null;
+    }
+
+    private boolean isLockfileToBeWritten() {
+        return this.lockfile != null && (this.updateLockfile || !this.lockfile.exists());
+    }
+
+    /**
+     * Returns whether the installed file is a JAR file repacked with uncompressed entries, whose size differs from the original.
+     */
+    private boolean isRepacked(final Path target) {
+        return this.repackStored.get() && InstallArtifactsWorkAction.isJar(target);
+    }
+
+    private static void deleteEmptyParents(final Path file, final Path home) throws IOException {
+        Path dir = file.getParent();
+        while (dir != null && !dir.equals(home) && dir.startsWith(home)) {
+            try (final Stream<Path> children = Files.list(dir)) {
+                if (children.findAny().isPresent()) {
+                    return;
+                }
+            } catch (final NoSuchFileException ex) {
+                dir = dir.getParent();
+                continue;
+            }
+            Files.delete(dir);
+            dir = dir.getParent();
+        }
+    }
+
+    /**
+     * Installs the artifacts by the install mode, sequentially or in parallel through Gradle's Worker API.
+     */
+    private void installFiles(final Collection<RunSetArtifact> artifacts) {
+        final InstallMode installMode = this.installMode.get();
+        final int parallelism = this.parallelism.get();
+        final boolean checksums = this.checksums.get();
+        final boolean repackStored = this.repackStored.get();
+        for (final RunSetArtifact artifact : artifacts) {
+            this.report.markInstalled(artifact);
+        }
+
+        if (parallelism <= 1) {
+            this.logger.lifecycle("Installing {} artifacts by {}.", artifacts.size(), installMode);
+            for (final RunSetArtifact artifact : artifacts) {
+                final Path target = this.embulkHome.toPath().resolve(artifact.getPathFromHome());
+                try {
+                    InstallArtifactsWorkAction.install(installMode, checksums, repackStored, artifact.getFile().toPath(), target);
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            this.setDidWork(true);
+            return;
+        }
+
+        final List<List<RunSetArtifact>> buckets = partitionBySize(artifacts, parallelism);
+        this.logger.lifecycle("Installing {} artifacts by {} in {} parallel work items.", artifacts.size(), installMode, buckets.size());
 
-            this.from(path.toFile(), copySpec -> {
-                copySpec.rename(path.getFileName().toString(), "embulk.properties");
+        final WorkQueue workQueue = this.getWorkerExecutor().noIsolation();
+        for (final List<RunSetArtifact> bucket : buckets) {
+            workQueue.submit(InstallArtifactsWorkAction.class, parameters -> {
+                for (final RunSetArtifact artifact : bucket) {
+                    parameters.getSourceFiles().add(artifact.getFile());
+                    parameters.getTargetFiles().add(this.embulkHome.toPath().resolve(artifact.getPathFromHome()).toFile());
+                }
+                parameters.getInstallMode().set(installMode.name());
+                parameters.getChecksums().set(checksums);
+                parameters.getRepackStored().set(repackStored);
             });
+        }
+        workQueue.await();
+        this.setDidWork(true);
+    }
+
+    /**
+     * Splits the artifacts into buckets whose total file sizes are balanced, assigning larger files first.
+     */
+    private static List<List<RunSetArtifact>> partitionBySize(final Collection<RunSetArtifact> artifacts, final int numberOfBuckets) {
+        final ArrayList<RunSetArtifact> sorted = new ArrayList<>(artifacts);
+        sorted.sort(Comparator.comparingLong((RunSetArtifact artifact) -> artifact.getFile().length()).reversed());
+
+        final int size = Math.min(numberOfBuckets, sorted.size());
+        final ArrayList<List<RunSetArtifact>> buckets = new ArrayList<>();
+        final long[] bucketBytes = new long[size];
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (final RunSetArtifact artifact : sorted) {
+            int smallest = 0;
+            for (int i = 1; i < size; i++) {
+                if (bucketBytes[i] < bucketBytes[smallest]) {
+                    smallest = i;
+                }
+            }
+            buckets.get(smallest).add(artifact);
+            bucketBytes[smallest] += artifact.getFile().length();
+        }
+        return buckets;
+    }
 
-            this.embulkSystemPropertiesSource = path;
+    private File createEmbulkPropertiesPlaceholder() {
+        // It is written without checking its existence, which would be an input of the configuration cache.
+        final Path path = this.getTemporaryDir().toPath().resolve("embulk.properties.placeholder");
+        try {
+            Files.write(path, new byte[0]);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
         }
+        return path.toFile();
+    }
+
+    private void enableEmbulkProperties() {
+        this.embulkPropertiesEnabled = true;
     }
 
     private static final Path DEFAULT_M2_REPO_RELATIVE = Paths.get("lib").resolve("m2").resolve("repository");
 
+    private static final String EXPLODED_JRUBY_DIR = "jruby";
+
+    private static final String GEM_HOME_RELATIVE = "lib/gems";
+
     // https://github.com/gradle/gradle/blob/v8.7.0/platforms/software/dependency-management/src/main/java/org/gradle/api/internal/notations/DependencyMapNotationConverter.java#L42-L58
     private static List<String> ACCEPTABLE_MAP_KEYS =
             Arrays.asList("group", "name", "version", "configuration", "ext", "classifier");
 
     private final Logger logger;
 
-    private final Project project;
+    // The fields below are marked "transient" as they are needed only at configuration time.
+    // Gradle does not store "transient" fields in the configuration cache.
+
+    private final transient Project project;
+
+    private final transient List<Dependency> artifactDependencies;
+
+    private final transient List<File> localRepositories;
+
+    private transient Dependency jrubyDependency;
+
+    private transient boolean resolveInSingleGraph;
+
+    private transient Map<File, String> sha256Memoized;
+
+    private transient List<RunSetArtifact> resolvedArtifactsMemoized;
+
+    private transient RunSetArtifact resolvedJrubyMemoized;
+
+    private transient Map<String, List<RunSetArtifact>> classpathsMemoized;
+
+    private transient TreeSet<String> prunedMemoized;
+
+    private transient Set<String> providedModulesMemoized;
+
+    private final transient List<String> providedModules;
+
+    private transient String embulkCoreVersion;
+
+    private transient Long resolveNanos;
+
+    private transient Long resolvePomsNanos;
+
+    private transient Set<Path> cachedFilesBeforeFetch;
+
+    private transient RunSetReport report;
+
+    private final Provider<List<RunSetArtifact>> resolvedArtifacts;
+
+    private final ConfigurableFileCollection resolvedArtifactFiles;
+
+    private final FileCollection embulkPropertiesPlaceholder;
+
+    private final Provider<RunSetArtifact> resolvedJruby;
+
+    private final Provider<Map<String, List<RunSetArtifact>>> resolvedClasspaths;
+
+    private final Provider<List<String>> prunedModules;
+
+    private final Property<Integer> parallelism;
+
+    private final Property<InstallMode> installMode;
+
+    private final Property<Boolean> sync;
+
+    private final Property<Boolean> classpathManifest;
+
+    private final Property<Boolean> checksums;
+
+    private final Property<Boolean> repackStored;
+
+    private final Property<Boolean> relocatableJruby;
+
+    private final Property<Boolean> explodedJruby;
+
+    private final Property<Boolean> pluginIndex;
+
+    private final DirectoryProperty store;
+
+    private final ConfigurableFileCollection gemFiles;
+
+    private final Property<String> gemJavaExecutable;
+
+    private final File gradleUserHome;
+
+    private final Provider<RegularFile> reportFile;
 
     private final Properties embulkSystemProperties;
 
-    private Path embulkHome;
+    private final List<String> notations;
+
+    private final List<String> alignments;
+
+    private File lockfile;
+
+    private boolean updateLockfile;
+
+    private File generationsDir;
+
+    private int keepGenerations;
+
+    private String generationsInput;
 
-    private Path embulkSystemPropertiesSource;
+    private File embulkHome;
 
-    private Path jrubyRelative;
+    private boolean embulkPropertiesEnabled;
 
-    private Path m2RepoRelative;
+    private File m2RepoRelative;
 }
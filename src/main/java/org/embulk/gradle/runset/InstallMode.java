@@ -0,0 +1,112 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Locale;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * How to install a resolved artifact file from Gradle's cache into the Embulk home.
+ */
+enum InstallMode {
+    /**
+     * Copies the file into a temporary file, and then renames it atomically to the target.
+     */
+    COPY {
+        @Override
+        void install(final Path source, final Path target) throws IOException {
+            AtomicFiles.copy(source, target);
+        }
+    },
+
+    /**
+     * Creates a hard link to the file at a temporary path, and then renames it atomically to the target.
+     * It falls back to copying when a hard link cannot be created, for example across file systems.
+     */
+    HARDLINK {
+        @Override
+        void install(final Path source, final Path target) throws IOException {
+            Files.createDirectories(target.getParent());
+            if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && !Files.isSymbolicLink(target) && isSameFile(source, target)) {
+                return;
+            }
+            try {
+                AtomicFiles.write(target, temporary -> Files.createLink(temporary, source));
+            } catch (final FileSystemException | UnsupportedOperationException ex) {
+                logger.info("Falling back to copy {} as a hard link cannot be created: {}", source, ex.toString());
+                COPY.install(source, target);
+            }
+        }
+    },
+
+    /**
+     * Creates a symbolic link to the file at a temporary path, and then renames it atomically to the target.
+     * It falls back to copying when a symbolic link cannot be created.
+     */
+    SYMLINK {
+        @Override
+        void install(final Path source, final Path target) throws IOException {
+            Files.createDirectories(target.getParent());
+            if (Files.isSymbolicLink(target) && Files.readSymbolicLink(target).equals(source.toAbsolutePath())) {
+                return;
+            }
+            try {
+                AtomicFiles.write(target, temporary -> Files.createSymbolicLink(temporary, source.toAbsolutePath()));
+            } catch (final FileSystemException | UnsupportedOperationException ex) {
+                logger.info("Falling back to copy {} as a symbolic link cannot be created: {}", source, ex.toString());
+                COPY.install(source, target);
+            }
+        }
+    },
+    ;
+
+    abstract void install(Path source, Path target) throws IOException;
+
+    @Override
+    public String toString() {
+        return this.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    static InstallMode of(final String name) {
+        if (name == null) {
+            throw new InvalidUserDataException("Supplied installMode is null.");
+        }
+        try {
+            return InstallMode.valueOf(name.toUpperCase(Locale.ENGLISH));
+        } catch (final IllegalArgumentException ex) {
+            throw new InvalidUserDataException(
+                    "Supplied installMode \"" + name + "\" is invalid. It must be one of: [copy, hardlink, symlink]", ex);
+        }
+    }
+
+    private static boolean isSameFile(final Path source, final Path target) {
+        try {
+            return Files.isSameFile(source, target);
+        } catch (final IOException ex) {
+            return false;
+        }
+    }
+
+    private static final Logger logger = Logging.getLogger(InstallMode.class);
+}
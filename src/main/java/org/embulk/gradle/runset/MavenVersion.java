@@ -0,0 +1,242 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares versions as Maven's {@code ComparableVersion} does.
+ *
+ * <p>A version is split into numbers and qualifiers at {@code .}, at {@code -}, and between digits and letters. A {@code -} starts
+ * a nested list. Trailing zeros and release qualifiers are ignored, so that {@code 1.0} equals {@code 1.0.0}. Qualifiers are
+ * ordered as {@code alpha < beta < milestone < rc < snapshot < (release) < sp}, and unknown qualifiers are after them in
+ * alphabetical order. A number is greater than a qualifier, so that {@code 1.0-SNAPSHOT < 1.0 < 1.0.1}.
+ */
+final class MavenVersion {
+    private MavenVersion() {
+        // No instantiation.
+    }
+
+    static int compare(final String version1, final String version2) {
+        return parse(version1).compareTo(parse(version2));
+    }
+
+    private interface Item {
+        /**
+         * Compares with another item, or with a missing item if {@code null}.
+         */
+        int compareTo(Item other);
+
+        boolean isNull();
+    }
+
+    private static final class IntItem implements Item {
+        IntItem(final String digits) {
+            this.value = new BigInteger(digits);
+        }
+
+        @Override
+        public int compareTo(final Item other) {
+            if (other == null) {
+                return this.value.signum() == 0 ? 0 : 1;
+            }
+            if (other instanceof IntItem) {
+                return this.value.compareTo(((IntItem) other).value);
+            }
+            return 1;  // A number is greater than a qualifier, and than a nested list.
+        }
+
+        @Override
+        public boolean isNull() {
+            return this.value.signum() == 0;
+        }
+
+        private final BigInteger value;
+    }
+
+    private static final class StringItem implements Item {
+        StringItem(final String value, final boolean followedByDigit) {
+            String normalized = value;
+            if (followedByDigit && value.length() == 1) {
+                // "1.0a1" is "1.0-alpha-1".
+                switch (value.charAt(0)) {
+                    case 'a':
+                        normalized = "alpha";
+                        break;
+                    case 'b':
+                        normalized = "beta";
+                        break;
+                    case 'm':
+                        normalized = "milestone";
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (normalized.equals("ga") || normalized.equals("final") || normalized.equals("release")) {
+                normalized = "";
+            } else if (normalized.equals("cr")) {
+                normalized = "rc";
+            }
+            this.comparable = comparableQualifier(normalized);
+        }
+
+        @Override
+        public int compareTo(final Item other) {
+            if (other == null) {
+                return this.comparable.compareTo(RELEASE);
+            }
+            if (other instanceof StringItem) {
+                return this.comparable.compareTo(((StringItem) other).comparable);
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean isNull() {
+            return this.comparable.equals(RELEASE);
+        }
+
+        private static String comparableQualifier(final String qualifier) {
+            final int index = QUALIFIERS.indexOf(qualifier);
+            return index < 0 ? QUALIFIERS.size() + "-" + qualifier : Integer.toString(index);
+        }
+
+        private static final List<String> QUALIFIERS = Collections.unmodifiableList(Arrays.asList(
+                "alpha", "beta", "milestone", "rc", "snapshot", "", "sp"));
+
+        private static final String RELEASE = comparableQualifier("");
+
+        private final String comparable;
+    }
+
+    private static final class ListItem extends ArrayList<Item> implements Item {
+        @Override
+        public int compareTo(final Item other) {
+            if (other == null) {
+                return this.isEmpty() ? 0 : this.get(0).compareTo(null);
+            }
+            if (other instanceof IntItem) {
+                return -1;
+            }
+            if (other instanceof StringItem) {
+                return 1;
+            }
+            final Iterator<Item> left = this.iterator();
+            final Iterator<Item> right = ((ListItem) other).iterator();
+            while (left.hasNext() || right.hasNext()) {
+                final Item leftItem = left.hasNext() ? left.next() : null;
+                final Item rightItem = right.hasNext() ? right.next() : null;
+                final int compared = leftItem == null
+                        ? (rightItem == null ? 0 : -rightItem.compareTo(null))
+                        : leftItem.compareTo(rightItem);
+                if (compared != 0) {
+                    return compared;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public boolean isNull() {
+            return this.isEmpty();
+        }
+
+        /**
+         * Removes the trailing null items, skipping over nested lists, so that "1.0" equals "1.0.0" and "1-0-ga".
+         */
+        void normalize() {
+            for (int i = this.size() - 1; i >= 0; i--) {
+                final Item item = this.get(i);
+                if (item.isNull()) {
+                    this.remove(i);
+                } else if (!(item instanceof ListItem)) {
+                    break;
+                }
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static ListItem parse(final String version) {
+        final String lower = version.toLowerCase(Locale.ENGLISH);
+        final ListItem items = new ListItem();
+        ListItem list = items;
+        final Deque<ListItem> stack = new ArrayDeque<>();
+        stack.push(list);
+
+        boolean isDigit = false;
+        int start = 0;
+        for (int i = 0; i < lower.length(); i++) {
+            final char c = lower.charAt(i);
+            if (c == '.' || c == '-') {
+                list.add(i == start ? new IntItem("0") : parseItem(isDigit, lower.substring(start, i)));
+                start = i + 1;
+                if (c == '-') {
+                    final ListItem nested = new ListItem();
+                    list.add(nested);
+                    list = nested;
+                    stack.push(list);
+                }
+            } else if (Character.isDigit(c)) {
+                if (!isDigit && i > start) {
+                    list.add(new StringItem(lower.substring(start, i), true));
+                    start = i;
+                    final ListItem nested = new ListItem();
+                    list.add(nested);
+                    list = nested;
+                    stack.push(list);
+                }
+                isDigit = true;
+            } else {
+                if (isDigit && i > start) {
+                    list.add(parseItem(true, lower.substring(start, i)));
+                    start = i;
+                    final ListItem nested = new ListItem();
+                    list.add(nested);
+                    list = nested;
+                    stack.push(list);
+                }
+                isDigit = false;
+            }
+        }
+        if (lower.length() > start) {
+            list.add(parseItem(isDigit, lower.substring(start)));
+        }
+
+        while (!stack.isEmpty()) {
+            stack.pop().normalize();
+        }
+        return items;
+    }
+
+    private static Item parseItem(final boolean isDigit, final String part) {
+        return isDigit ? new IntItem(part) : new StringItem(part, false);
+    }
+
+    static final Comparator<String> COMPARATOR = MavenVersion::compare;
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+/**
+ * Checks whether a version satisfies a requested dynamic version: a Maven version range such as {@code [1.0,2.0)},
+ * a prefix such as {@code 1.+}, or {@code latest.<status>}.
+ *
+ * <p>The bounds of ranges are compared by {@link MavenVersion}.
+ */
+final class MavenVersionRange {
+    private MavenVersionRange() {
+        // No instantiation.
+    }
+
+    /**
+     * Returns {@code true} if the version satisfies the requested dynamic version, or is equal to the requested fixed version.
+     */
+    static boolean isSatisfiedBy(final String requested, final String version) {
+        if (requested.startsWith("latest.")) {
+            // The status of the version is unknown here. It has been selected for the request, or for a higher request.
+            return true;
+        }
+        if (requested.endsWith("+")) {
+            return version.startsWith(requested.substring(0, requested.length() - 1));
+        }
+        if (!requested.startsWith("[") && !requested.startsWith("(")) {
+            return requested.equals(version);
+        }
+
+        // Multiple ranges are separated by commas between them, for example "(,1.0],[1.2,)".
+        int start = 0;
+        while (start < requested.length()) {
+            int end = start + 1;
+            while (end < requested.length() && requested.charAt(end) != ']' && requested.charAt(end) != ')') {
+                end++;
+            }
+            if (end >= requested.length()) {
+                return false;
+            }
+            if (isInRange(requested.substring(start, end + 1), version)) {
+                return true;
+            }
+            start = end + 1;
+            if (start < requested.length() && requested.charAt(start) == ',') {
+                start++;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInRange(final String range, final String version) {
+        final boolean lowerInclusive = range.charAt(0) == '[';
+        final boolean upperInclusive = range.charAt(range.length() - 1) == ']';
+        final String body = range.substring(1, range.length() - 1);
+        final int comma = body.indexOf(',');
+        if (comma < 0) {
+            // "[1.0]" is exactly 1.0.
+            return MavenVersion.compare(body.trim(), version) == 0;
+        }
+        final String lower = body.substring(0, comma).trim();
+        final String upper = body.substring(comma + 1).trim();
+        if (!lower.isEmpty()) {
+            final int compared = MavenVersion.compare(version, lower);
+            if (compared < 0 || (compared == 0 && !lowerInclusive)) {
+                return false;
+            }
+        }
+        if (!upper.isEmpty()) {
+            final int compared = MavenVersion.compare(version, upper);
+            if (compared > 0 || (compared == 0 && !upperInclusive)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
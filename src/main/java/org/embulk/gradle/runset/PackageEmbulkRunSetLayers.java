@@ -0,0 +1,159 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * A Gradle task to package the installed Embulk home into content-addressed layers for shipping to other hosts.
+ *
+ * <p>The Embulk home is split into the layers below, and each layer is written as a reproducible tar archive named by its SHA-256.
+ *
+ * <ul>
+ * <li>"jruby": the JRuby artifacts
+ * <li>"lib": the artifacts shared by multiple plugins, or not in any plugin's classpath
+ * <li>"plugin:{@code <group>:<module>:<version>}": the plugin's own artifacts, and the artifacts only the plugin depends on
+ * <li>"properties": "embulk.properties"
+ * </ul>
+ *
+ * <p>The index {@value #INDEX_FILE_NAME} lists each layer with its name, SHA-256, and size in the order above.
+ * A host can download only the layers it does not have yet, and extract them into its Embulk home in the order of the index.
+ */
+public abstract class PackageEmbulkRunSetLayers extends DefaultTask {
+    /**
+     * Returns the Embulk home to be packaged. It is the {@code embulkHome} of {@code installEmbulkRunSet} by default.
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getEmbulkHome();
+
+    /**
+     * Returns the layers, from the name of each layer to the paths of its files relative from the Embulk home.
+     */
+    @Input
+    public abstract MapProperty<String, List<String>> getLayers();
+
+    /**
+     * Returns the directory to write the layers and the index into.
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getDestinationDirectory();
+
+    @TaskAction
+    public void packageLayers() {
+        try {
+            this.packageLayers(this.getEmbulkHome().get().getAsFile().toPath(), this.getDestinationDirectory().get().getAsFile().toPath());
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void packageLayers(final Path embulkHome, final Path destination) throws IOException {
+        Files.createDirectories(destination);
+
+        final ArrayList<String> indexLines = new ArrayList<>();
+        final HashSet<String> layerFileNames = new HashSet<>();
+        for (final Map.Entry<String, List<String>> layer : this.getLayers().get().entrySet()) {
+            final ArrayList<String> paths = new ArrayList<>();
+            for (final String path : layer.getValue()) {
+                final Path file = embulkHome.resolve(path);
+                if (Files.isRegularFile(file)) {
+                    paths.add(path);
+                } else if (Files.isDirectory(file)) {
+                    // A directory, such as the exploded JRuby, is packaged with all the files in it in a stable order.
+                    final TreeSet<String> files = new TreeSet<>();
+                    try (final Stream<Path> walk = Files.walk(file)) {
+                        walk.filter(Files::isRegularFile).forEach(child -> files.add(path + "/" + toSlashSeparated(file.relativize(child))));
+                    }
+                    paths.addAll(files);
+                }
+            }
+            if (paths.isEmpty()) {
+                continue;
+            }
+
+            final Path temporary = destination.resolve(".layer.tar.tmp");
+            final MessageDigest digest = RunSetManifest.newSha256();
+            try (final OutputStream out = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)), digest)) {
+                TarArchive.write(out, embulkHome, paths);
+            }
+            final String sha256 = RunSetManifest.toHex(digest.digest());
+            final Path layerFile = destination.resolve(sha256 + ".tar");
+            final long size = Files.size(temporary);
+            Files.move(temporary, layerFile, StandardCopyOption.REPLACE_EXISTING);
+
+            layerFileNames.add(layerFile.getFileName().toString());
+            indexLines.add(layer.getKey() + "\t" + sha256 + "\t" + size);
+            this.getLogger().info("Packaged the layer \"{}\" with {} files: {}", layer.getKey(), paths.size(), layerFile);
+        }
+
+        try (final BufferedWriter writer = Files.newBufferedWriter(destination.resolve(INDEX_FILE_NAME), StandardCharsets.UTF_8)) {
+            writer.write("# Generated by the \"org.embulk.embulk-runset\" Gradle plugin. Each line is the name, the SHA-256, and the size.\n");
+            for (final String line : indexLines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+        }
+
+        // The layers no longer in the index are deleted so that the directory can be published as is.
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(destination, "*.tar")) {
+            for (final Path file : stream) {
+                if (!layerFileNames.contains(file.getFileName().toString())) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        this.getLogger().lifecycle("Packaged {} layers into {}", indexLines.size(), destination);
+    }
+
+    private static String toSlashSeparated(final Path path) {
+        final ArrayList<String> names = new ArrayList<>();
+        for (final Path name : path) {
+            names.add(name.toString());
+        }
+        return String.join("/", names);
+    }
+
+    static final String INDEX_FILE_NAME = "layers.tsv";
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Indexes the plugin types provided by the installed plugin JAR files.
+ *
+ * <p>A JAR file is an Embulk plugin if its manifest has {@code Embulk-Plugin-Main-Class}. Its category and type are taken from
+ * {@code Embulk-Plugin-Category} and {@code Embulk-Plugin-Type} in the manifest, or from the module name {@code embulk-<category>-<type>}.
+ * Each entry is written into the Embulk System Property {@code plugins.<category>.<type>} as {@code maven:<group>:<type>:<version>},
+ * so that Embulk loads the plugin directly from its Maven repository without looking for it.
+ */
+final class PluginIndex {
+    private PluginIndex() {
+        // No instantiation.
+    }
+
+    static final class Entry {
+        Entry(final String category, final String type, final RunSetArtifact artifact, final String mainClass) {
+            this.category = category;
+            this.type = type;
+            this.artifact = artifact;
+            this.mainClass = mainClass;
+        }
+
+        String getPropertyKey() {
+            return "plugins." + this.category + "." + this.type;
+        }
+
+        String getPropertyValue() {
+            return "maven:" + this.artifact.getGroup() + ":" + this.type + ":" + this.artifact.getVersion();
+        }
+
+        private final String category;
+
+        private final String type;
+
+        private final RunSetArtifact artifact;
+
+        private final String mainClass;
+    }
+
+    /**
+     * Scans the first JAR file in each classpath, which is the plugin itself.
+     *
+     * @return the entries by their property keys, the first one for each key
+     */
+    static Map<String, Entry> scan(final Map<String, List<RunSetArtifact>> classpaths) throws IOException {
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        for (final List<RunSetArtifact> classpath : classpaths.values()) {
+            if (classpath.isEmpty() || !"jar".equals(classpath.get(0).getType())) {
+                continue;
+            }
+            final Entry entry = scan(classpath.get(0));
+            if (entry == null) {
+                continue;
+            }
+            final Entry existing = entries.putIfAbsent(entry.getPropertyKey(), entry);
+            if (existing != null) {
+                logger.warn("Plugin {} is not indexed as {} is indexed as \"{}\" already.",
+                            entry.artifact.getCoordinates(), existing.artifact.getCoordinates(), entry.getPropertyKey());
+            }
+        }
+        return entries;
+    }
+
+    private static Entry scan(final RunSetArtifact artifact) throws IOException {
+        final Manifest manifest;
+        try (final JarFile jarFile = new JarFile(artifact.getFile())) {
+            manifest = jarFile.getManifest();
+        }
+        if (manifest == null) {
+            return null;
+        }
+        final Attributes attributes = manifest.getMainAttributes();
+        final String mainClass = attributes.getValue("Embulk-Plugin-Main-Class");
+        if (mainClass == null) {
+            return null;
+        }
+
+        // Embulk finds the plugin of "maven:<group>:<type>:<version>" as the module "embulk-<category>-<type>".
+        final String module = artifact.getModule();
+        String category = attributes.getValue("Embulk-Plugin-Category");
+        if (category == null) {
+            for (final String candidate : CATEGORIES) {
+                if (module.startsWith("embulk-" + candidate + "-")) {
+                    category = candidate;
+                    break;
+                }
+            }
+        }
+        final String prefix = "embulk-" + category + "-";
+        if (category == null || !module.startsWith(prefix) || module.length() == prefix.length()) {
+            logger.warn("Plugin {} is not indexed as its module name is not in the form of \"embulk-<category>-<type>\".",
+                        artifact.getCoordinates());
+            return null;
+        }
+        final String type = module.substring(prefix.length());
+        final String declaredType = attributes.getValue("Embulk-Plugin-Type");
+        if (declaredType != null && !declaredType.equals(type)) {
+            logger.warn("Plugin {} is not indexed as its type \"{}\" does not match its module name.", artifact.getCoordinates(), declaredType);
+            return null;
+        }
+        return new Entry(category, type, artifact, mainClass);
+    }
+
+    /**
+     * Writes the index: the category, the type, the coordinates, and the main class of each plugin in a tab-separated line.
+     */
+    static void write(final Path path, final Map<String, Entry> entries) throws IOException {
+        AtomicFiles.write(path, temporary -> {
+            try (final BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                writer.write("# Generated by the \"org.embulk.embulk-runset\" Gradle plugin."
+                             + " Each line is the category, the type, the coordinates, and the main class.\n");
+                final ArrayList<String> keys = new ArrayList<>(entries.keySet());
+                Collections.sort(keys);
+                for (final String key : keys) {
+                    final Entry entry = entries.get(key);
+                    writer.write(entry.category + "\t" + entry.type + "\t" + entry.artifact.getCoordinates() + "\t" + entry.mainClass + "\n");
+                }
+            }
+        });
+    }
+
+    static final String FILE_NAME = "embulk-plugins.tsv";
+
+    private static final List<String> CATEGORIES = Collections.unmodifiableList(Arrays.asList(
+            "input", "output", "filter", "parser", "formatter", "decoder", "encoder", "guess", "executor"));
+
+    private static final Logger logger = Logging.getLogger(PluginIndex.class);
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * A resolved Maven artifact file to be installed in the Embulk home, with its path relative from the Embulk home.
+ *
+ * <p>It is a plain value so that it can be stored in Gradle's configuration cache.
+ */
+final class RunSetArtifact implements Serializable {
+    RunSetArtifact(
+            final String group,
+            final String module,
+            final String version,
+            final String type,
+            final File file,
+            final String pathFromHome) {
+        this.group = group;
+        this.module = module;
+        this.version = version;
+        this.type = type;
+        this.file = file;
+        this.pathFromHome = pathFromHome;
+    }
+
+    String getGroup() {
+        return this.group;
+    }
+
+    String getModule() {
+        return this.module;
+    }
+
+    String getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the type of the artifact, "jar" or "pom".
+     */
+    String getType() {
+        return this.type;
+    }
+
+    /**
+     * Returns the file in Gradle's cache, or in a local repository.
+     */
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the path relative from the Embulk home, separated always by '/'.
+     */
+    String getPathFromHome() {
+        return this.pathFromHome;
+    }
+
+    /**
+     * Returns the same artifact with another file of the same content.
+     */
+    RunSetArtifact withFile(final File file) {
+        return new RunSetArtifact(this.group, this.module, this.version, this.type, file, this.pathFromHome);
+    }
+
+    String getCoordinates() {
+        return this.group + ":" + this.module + ":" + this.version;
+    }
+
+    /**
+     * Returns the key to identify the artifact in the run set lockfile, which is its coordinates and its file name.
+     */
+    String getKey() {
+        return this.getCoordinates() + "/" + this.file.getName();
+    }
+
+    @Override
+    public String toString() {
+        return this.getCoordinates() + ":" + this.type + " (" + this.pathFromHome + ")";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final String group;
+
+    private final String module;
+
+    private final String version;
+
+    private final String type;
+
+    private final File file;
+
+    private final String pathFromHome;
+}
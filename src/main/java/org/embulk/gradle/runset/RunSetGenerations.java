@@ -0,0 +1,256 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import org.gradle.api.InvalidUserDataException;
+
+/**
+ * Publishes the installed Embulk home as a numbered generation in a directory, and switches the symbolic link {@code current} to it.
+ *
+ * <p>The directory has the generations {@code 1/}, {@code 2/}, ..., and {@code current} linking to one of them. A new generation is
+ * published into a temporary directory first, then renamed to its number, and then {@code current} is replaced atomically by renaming
+ * a new link onto it. A running Embulk job never sees a generation partially published.
+ *
+ * <p>The artifacts, the exploded JRuby, and the gems unchanged from the latest generation are hard-linked from the generation
+ * so that they are shared by all the generations. The other files are copied from the Embulk home, so that no generation shares
+ * a file with the Embulk home, which is only a staging directory.
+ *
+ * <p>Installing into the Embulk home and publishing it are serialized by a file lock on {@code .embulk-runset.lock} in the directory
+ * among builds, even on other hosts sharing the directory if the file system supports it.
+ */
+final class RunSetGenerations {
+    private RunSetGenerations() {
+        // No instantiation.
+    }
+
+    /**
+     * Locks the directory among builds, and returns the channel of the lock file. Closing the channel releases the lock.
+     */
+    static FileChannel lock(final Path dir) throws IOException {
+        Files.createDirectories(dir);
+        final FileChannel channel = FileChannel.open(dir.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (final IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    /**
+     * Publishes the Embulk home as a new generation, and deletes the generations older than the current and {@code keep} previous ones.
+     *
+     * <p>It must be called under {@link #lock}.
+     *
+     * @param linkedPaths  the paths relative from the Embulk home, separated by '/', whose unchanged files are hard-linked from the latest
+     *     generation instead of copied
+     * @return the number of the new generation
+     */
+    static int publish(final Path home, final List<String> linkedPaths, final Path dir, final int keep) throws IOException {
+        deleteTemporaryEntries(dir);
+
+        final TreeSet<Integer> generations = listGenerations(dir);
+        final int next = generations.isEmpty() ? 1 : generations.last() + 1;
+        final Path temporary = temporaryPath(dir, Integer.toString(next));
+        try {
+            snapshot(home, linkedPaths, generations.isEmpty() ? null : dir.resolve(Integer.toString(generations.last())), temporary);
+            Files.move(temporary, dir.resolve(Integer.toString(next)), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            AtomicFiles.deleteRecursively(temporary);
+        }
+
+        switchCurrent(dir, next);
+        generations.add(next);
+        int kept = 0;
+        for (final Integer generation : generations.descendingSet()) {
+            if (generation != next && ++kept > keep) {
+                AtomicFiles.deleteRecursively(dir.resolve(Integer.toString(generation)));
+            }
+        }
+        return next;
+    }
+
+    private static void snapshot(final Path home, final List<String> linkedPaths, final Path latest, final Path target) throws IOException {
+        final ArrayList<Path> linkedDirs = new ArrayList<>();
+        for (final String linkedPath : linkedPaths) {
+            linkedDirs.add(home.resolve(linkedPath));
+        }
+        final List<Path> files = new ArrayList<>();
+        try (final Stream<Path> walk = Files.walk(home)) {
+            walk.forEach(files::add);
+        }
+        for (final Path file : files) {
+            final String relative = home.relativize(file).toString();
+            final Path copied = target.resolve(relative);
+            if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                Files.createDirectories(copied);
+            } else if (Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+                final Path previous = latest != null && isUnder(file, linkedDirs) ? latest.resolve(relative) : null;
+                if (previous == null || !isUnchanged(file, previous) || !createLink(copied, previous)) {
+                    Files.copy(file, copied, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            } else {
+                // A symbolic link is copied as a link.
+                Files.copy(file, copied, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            }
+        }
+    }
+
+    /**
+     * Creates a hard link, or returns {@code false} if the file system does not support it.
+     */
+    private static boolean createLink(final Path link, final Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (final FileSystemException | UnsupportedOperationException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the file in the latest generation is the same as the file in the Embulk home.
+     *
+     * <p>A file copied into a generation keeps its modification time. The file is the same if its size and its modification time are
+     * not changed, or its contents are the same, for example, when the same artifact is installed again.
+     */
+    private static boolean isUnchanged(final Path file, final Path previous) throws IOException {
+        if (!Files.isRegularFile(previous, LinkOption.NOFOLLOW_LINKS) || Files.size(file) != Files.size(previous)) {
+            return false;
+        }
+        if (Files.getLastModifiedTime(file).equals(Files.getLastModifiedTime(previous))) {
+            return true;
+        }
+        try (final InputStream in1 = Files.newInputStream(file);
+                final InputStream in2 = Files.newInputStream(previous)) {
+            final byte[] buffer1 = new byte[BUFFER_SIZE];
+            final byte[] buffer2 = new byte[BUFFER_SIZE];
+            while (true) {
+                final int read = readFully(in1, buffer1);
+                if (read != readFully(in2, buffer2)) {
+                    return false;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer1[i] != buffer2[i]) {
+                        return false;
+                    }
+                }
+                if (read < BUFFER_SIZE) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static int readFully(final InputStream in, final byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            final int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static boolean isUnder(final Path file, final List<Path> dirs) {
+        for (final Path dir : dirs) {
+            if (file.startsWith(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces {@code current} by renaming a new link onto it, which is atomic on POSIX file systems.
+     */
+    private static void switchCurrent(final Path dir, final int generation) throws IOException {
+        final Path current = dir.resolve(CURRENT);
+        if (Files.exists(current, LinkOption.NOFOLLOW_LINKS) && !Files.isSymbolicLink(current)) {
+            throw new InvalidUserDataException("\"" + current + "\" is not a symbolic link. Remove it to publish generations.");
+        }
+        final Path link = temporaryPath(dir, CURRENT);
+        Files.createSymbolicLink(link, Paths.get(Integer.toString(generation)));
+        try {
+            Files.move(link, current, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException ex) {
+            Files.move(link, current, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(link);
+        }
+    }
+
+    private static TreeSet<Integer> listGenerations(final Path dir) throws IOException {
+        final TreeSet<Integer> generations = new TreeSet<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path entry : stream) {
+                final String name = entry.getFileName().toString();
+                if (!name.isEmpty() && name.length() < 10 && name.chars().allMatch(Character::isDigit) && Files.isDirectory(entry)) {
+                    generations.add(Integer.valueOf(name));
+                }
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Deletes the temporary generations and links left by a build killed while publishing.
+     */
+    private static void deleteTemporaryEntries(final Path dir) throws IOException {
+        final List<Path> temporaryEntries = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir, ".*" + TEMPORARY_SUFFIX)) {
+            for (final Path entry : stream) {
+                temporaryEntries.add(entry);
+            }
+        }
+        for (final Path entry : temporaryEntries) {
+            AtomicFiles.deleteRecursively(entry);
+        }
+    }
+
+    private static Path temporaryPath(final Path dir, final String name) {
+        return dir.resolve("." + name + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + TEMPORARY_SUFFIX);
+    }
+
+    static final String CURRENT = "current";
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final String LOCK_FILE_NAME = ".embulk-runset.lock";
+
+    private static final String TEMPORARY_SUFFIX = ".embulk-runset-tmp";
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lockfile of a run set, which lists the requested notations, and every resolved artifact file with its SHA-256 hash.
+ *
+ * <p>Each line is tab-separated. A "notation" line has the kind ("artifact", "jruby", "align", "embulkCore", or "provided") and the requested notation.
+ * An "artifact" or "jruby" line has the group, the module, the version, the type ("jar" or "pom"), the file name, and the SHA-256.
+ * A "classpath" line has the coordinates of a plugin, and the keys of the JAR artifacts in its classpath in order.
+ */
+final class RunSetLockfile {
+    RunSetLockfile(final List<String> notations, final List<Entry> entries, final Map<String, List<String>> classpaths) {
+        this.notations = Collections.unmodifiableList(new ArrayList<>(notations));
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        this.classpaths = Collections.unmodifiableMap(new LinkedHashMap<>(classpaths));
+    }
+
+    static final class Entry {
+        Entry(final String kind,
+              final String group,
+              final String module,
+              final String version,
+              final String type,
+              final String fileName,
+              final String sha256) {
+            this.kind = kind;
+            this.group = group;
+            this.module = module;
+            this.version = version;
+            this.type = type;
+            this.fileName = fileName;
+            this.sha256 = sha256;
+        }
+
+        /**
+         * Returns "artifact" or "jruby".
+         */
+        String getKind() {
+            return this.kind;
+        }
+
+        String getGroup() {
+            return this.group;
+        }
+
+        String getModule() {
+            return this.module;
+        }
+
+        String getVersion() {
+            return this.version;
+        }
+
+        String getType() {
+            return this.type;
+        }
+
+        String getFileName() {
+            return this.fileName;
+        }
+
+        String getSha256() {
+            return this.sha256;
+        }
+
+        /**
+         * Returns the classifier of the artifact guessed from its file name, or {@code null} if it has no classifier.
+         */
+        String getClassifier() {
+            final String prefix = this.module + "-" + this.version + "-";
+            final String suffix = "." + this.type;
+            if (this.fileName.startsWith(prefix) && this.fileName.endsWith(suffix)
+                    && this.fileName.length() > prefix.length() + suffix.length()) {
+                return this.fileName.substring(prefix.length(), this.fileName.length() - suffix.length());
+            }
+            return null;
+        }
+
+        String getKey() {
+            return this.group + ":" + this.module + ":" + this.version + "/" + this.fileName;
+        }
+
+        private final String kind;
+
+        private final String group;
+
+        private final String module;
+
+        private final String version;
+
+        private final String type;
+
+        private final String fileName;
+
+        private final String sha256;
+    }
+
+    static RunSetLockfile read(final Path path) throws IOException {
+        final ArrayList<String> notations = new ArrayList<>();
+        final ArrayList<Entry> entries = new ArrayList<>();
+        final LinkedHashMap<String, List<String>> classpaths = new LinkedHashMap<>();
+        try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] columns = line.split("\t", -1);
+                if (columns[0].equals("notation") && columns.length == 3) {
+                    notations.add(columns[1] + " " + columns[2]);
+                } else if ((columns[0].equals("artifact") || columns[0].equals("jruby")) && columns.length == 7) {
+                    entries.add(new Entry(columns[0], columns[1], columns[2], columns[3], columns[4], columns[5], columns[6]));
+                } else if (columns[0].equals("classpath") && columns.length >= 2) {
+                    classpaths.put(columns[1], Arrays.asList(columns).subList(2, columns.length));
+                } else {
+                    throw new IOException("Invalid line in the run set lockfile " + path + ": " + line);
+                }
+            }
+        }
+        return new RunSetLockfile(notations, entries, classpaths);
+    }
+
+    void write(final Path path) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (final BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("# Generated by the \"org.embulk.embulk-runset\" Gradle plugin. Update it by --update-lockfile.\n");
+            for (final String notation : this.notations) {
+                final int space = notation.indexOf(' ');
+                writer.write("notation\t" + notation.substring(0, space) + "\t" + notation.substring(space + 1) + "\n");
+            }
+            for (final Entry entry : this.entries) {
+                writer.write(String.join(
+                        "\t",
+                        entry.getKind(),
+                        entry.getGroup(),
+                        entry.getModule(),
+                        entry.getVersion(),
+                        entry.getType(),
+                        entry.getFileName(),
+                        entry.getSha256()));
+                writer.write("\n");
+            }
+            for (final Map.Entry<String, List<String>> classpath : this.classpaths.entrySet()) {
+                writer.write("classpath\t" + classpath.getKey());
+                for (final String key : classpath.getValue()) {
+                    writer.write("\t" + key);
+                }
+                writer.write("\n");
+            }
+        }
+    }
+
+    /**
+     * Returns the requested notations, each as its kind ("artifact", "jruby", "align", "embulkCore", or "provided"), a space, and the notation.
+     */
+    List<String> getNotations() {
+        return this.notations;
+    }
+
+    List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Returns the classpath of each plugin, from the coordinates of the plugin to the keys of the JAR artifacts in order.
+     */
+    Map<String, List<String>> getClasspaths() {
+        return this.classpaths;
+    }
+
+    private final List<String> notations;
+
+    private final List<Entry> entries;
+
+    private final Map<String, List<String>> classpaths;
+}
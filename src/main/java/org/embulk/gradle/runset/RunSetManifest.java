@@ -0,0 +1,204 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeMap;
+
+/**
+ * A manifest of the files installed in the Embulk home, with their sizes and SHA-256 hashes.
+ *
+ * <p>It is stored as {@value #FILE_NAME} in the Embulk home. Each line is tab-separated "path", "size", and "SHA-256" of the source
+ * artifact, followed by "size", "modification time in milliseconds", and "SHA-256" of the installed file, sorted by the path.
+ * The path is relative from the Embulk home, separated always by '/'. The installed file differs from the source artifact
+ * only if it is repacked. A manifest written by an older version has only the first three columns.
+ */
+final class RunSetManifest {
+    RunSetManifest() {
+        this.entries = new TreeMap<>();
+    }
+
+    static final class Entry {
+        Entry(final String path,
+              final long size,
+              final String sha256,
+              final long installedSize,
+              final long installedModifiedMillis,
+              final String installedSha256) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+            this.installedSize = installedSize;
+            this.installedModifiedMillis = installedModifiedMillis;
+            this.installedSha256 = installedSha256;
+        }
+
+        String getPath() {
+            return this.path;
+        }
+
+        long getSize() {
+            return this.size;
+        }
+
+        String getSha256() {
+            return this.sha256;
+        }
+
+        /**
+         * Returns the size of the installed file, or -1 if it is not recorded.
+         */
+        long getInstalledSize() {
+            return this.installedSize;
+        }
+
+        /**
+         * Returns the modification time of the installed file, following links, or -1 if it is not recorded.
+         */
+        long getInstalledModifiedMillis() {
+            return this.installedModifiedMillis;
+        }
+
+        /**
+         * Returns the SHA-256 of the installed file, or {@code null} if it is not recorded.
+         */
+        String getInstalledSha256() {
+            return this.installedSha256;
+        }
+
+        private final String path;
+
+        private final long size;
+
+        private final String sha256;
+
+        private final long installedSize;
+
+        private final long installedModifiedMillis;
+
+        private final String installedSha256;
+    }
+
+    /**
+     * Reads the manifest in the Embulk home, or returns an empty manifest if it does not exist.
+     */
+    static RunSetManifest read(final Path embulkHome) throws IOException {
+        final RunSetManifest manifest = new RunSetManifest();
+        final Path file = embulkHome.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] columns = line.split("\t", -1);
+                if (columns.length != 3 && columns.length != 6) {
+                    throw new IOException("Invalid line in " + file + ": " + line);
+                }
+                try {
+                    if (columns.length == 3) {
+                        manifest.put(columns[0], Long.parseLong(columns[1]), columns[2], -1L, -1L, null);
+                    } else {
+                        manifest.put(columns[0], Long.parseLong(columns[1]), columns[2], Long.parseLong(columns[3]), Long.parseLong(columns[4]), columns[5]);
+                    }
+                } catch (final NumberFormatException ex) {
+                    throw new IOException("Invalid size in " + file + ": " + line, ex);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest in the Embulk home, through a temporary file so that a broken manifest is never left.
+     */
+    void write(final Path embulkHome) throws IOException {
+        AtomicFiles.write(embulkHome.resolve(FILE_NAME), temporary -> {
+            try (final BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                writer.write("# Generated by the \"org.embulk.embulk-runset\" Gradle plugin. Do not edit.\n");
+                for (final Entry entry : this.entries.values()) {
+                    writer.write(entry.getPath() + "\t" + entry.getSize() + "\t" + entry.getSha256()
+                            + "\t" + entry.getInstalledSize() + "\t" + entry.getInstalledModifiedMillis() + "\t" + entry.getInstalledSha256() + "\n");
+                }
+            }
+        });
+    }
+
+    void put(final String path,
+             final long size,
+             final String sha256,
+             final long installedSize,
+             final long installedModifiedMillis,
+             final String installedSha256) {
+        this.entries.put(path, new Entry(path, size, sha256, installedSize, installedModifiedMillis, installedSha256));
+    }
+
+    Entry get(final String path) {
+        return this.entries.get(path);
+    }
+
+    Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(this.entries.values());
+    }
+
+    static String sha256(final Path file) throws IOException {
+        final MessageDigest digest = newSha256();
+        final byte[] buffer = new byte[65536];
+        try (final InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is unavailable in the JVM.", ex);
+        }
+    }
+
+    static String toHex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    static final String FILE_NAME = ".embulk-runset-manifest";
+
+    private final TreeMap<String, Entry> entries;
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-phase timings and per-artifact metrics of an execution of {@link InstallEmbulkRunSet}, written as a JSON report.
+ */
+final class RunSetReport {
+    RunSetReport(final String taskPath, final String embulkHome) {
+        this.taskPath = taskPath;
+        this.embulkHome = embulkHome;
+        this.phases = new LinkedHashMap<>();
+        this.artifacts = new LinkedHashMap<>();
+        this.pruned = new ArrayList<>();
+    }
+
+    private static final class ArtifactMetrics {
+        ArtifactMetrics(final RunSetArtifact artifact, final long size, final Boolean downloaded) {
+            this.artifact = artifact;
+            this.size = size;
+            this.downloaded = downloaded;
+            this.status = "resolved";
+        }
+
+        private final RunSetArtifact artifact;
+
+        private final long size;
+
+        /**
+         * {@code true} if downloaded in this build, {@code false} if found in Gradle's cache, or {@code null} if unknown.
+         */
+        private final Boolean downloaded;
+
+        /**
+         * "resolved", "installed", or "unchanged".
+         */
+        private String status;
+    }
+
+    /**
+     * Adds the duration of a phase. The durations of the same phase are summed up.
+     */
+    synchronized void addPhase(final String name, final long nanos) {
+        this.phases.merge(name, nanos, Long::sum);
+    }
+
+    synchronized void addArtifact(final RunSetArtifact artifact, final long size, final Boolean downloaded) {
+        this.artifacts.putIfAbsent(artifact.getPathFromHome(), new ArtifactMetrics(artifact, size, downloaded));
+    }
+
+    /**
+     * Sets the coordinates of the modules pruned as provided by Embulk core.
+     */
+    synchronized void setPruned(final List<String> pruned) {
+        this.pruned = new ArrayList<>(pruned);
+    }
+
+    synchronized void markInstalled(final RunSetArtifact artifact) {
+        this.mark(artifact, "installed");
+    }
+
+    synchronized void markUnchanged(final RunSetArtifact artifact) {
+        this.mark(artifact, "unchanged");
+    }
+
+    synchronized long getInstalledBytes() {
+        long bytes = 0;
+        for (final ArtifactMetrics metrics : this.artifacts.values()) {
+            if (metrics.status.equals("installed")) {
+                bytes += metrics.size;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a one-line summary for the lifecycle log.
+     */
+    synchronized String summarize() {
+        final long installNanos = this.phases.getOrDefault(PHASE_COPY_SPEC, 0L) + this.phases.getOrDefault(PHASE_INSTALL, 0L);
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ENGLISH, "Installed %d artifacts (%s) in %s (%s/s)",
+                this.count("installed"), formatBytes(this.getInstalledBytes()), formatNanos(installNanos), formatBytes(this.throughput())));
+        builder.append(String.format(Locale.ENGLISH, ", %d unchanged", this.count("unchanged")));
+        if (this.phases.containsKey(PHASE_RESOLVE)) {
+            final long resolveNanos = this.phases.get(PHASE_RESOLVE) + this.phases.getOrDefault(PHASE_RESOLVE_POMS, 0L);
+            builder.append(String.format(Locale.ENGLISH, ", resolved in %s", formatNanos(resolveNanos)));
+        }
+        builder.append('.');
+        return builder.toString();
+    }
+
+    synchronized void write(final Path path) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (final Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"task\": " + quote(this.taskPath) + ",\n");
+            writer.write("  \"embulkHome\": " + quote(this.embulkHome) + ",\n");
+
+            writer.write("  \"phases\": [");
+            String delimiter = "\n";
+            for (final Map.Entry<String, Long> phase : this.phases.entrySet()) {
+                writer.write(delimiter);
+                writer.write("    {\"name\": " + quote(phase.getKey()) + ", \"millis\": " + (phase.getValue() / 1000000L) + "}");
+                delimiter = ",\n";
+            }
+            writer.write("\n  ],\n");
+
+            writer.write("  \"summary\": {\n");
+            writer.write("    \"artifacts\": " + this.artifacts.size() + ",\n");
+            writer.write("    \"installed\": " + this.count("installed") + ",\n");
+            writer.write("    \"unchanged\": " + this.count("unchanged") + ",\n");
+            writer.write("    \"downloaded\": " + this.countDownloaded() + ",\n");
+            writer.write("    \"installedBytes\": " + this.getInstalledBytes() + ",\n");
+            writer.write("    \"pruned\": " + this.pruned.size() + ",\n");
+            writer.write("    \"installBytesPerSecond\": " + this.throughput() + "\n");
+            writer.write("  },\n");
+
+            writer.write("  \"artifacts\": [");
+            delimiter = "\n";
+            for (final ArtifactMetrics metrics : this.artifacts.values()) {
+                writer.write(delimiter);
+                writer.write("    {\"coordinates\": " + quote(metrics.artifact.getCoordinates())
+                        + ", \"type\": " + quote(metrics.artifact.getType())
+                        + ", \"path\": " + quote(metrics.artifact.getPathFromHome())
+                        + ", \"size\": " + metrics.size
+                        + ", \"downloaded\": " + metrics.downloaded
+                        + ", \"status\": " + quote(metrics.status) + "}");
+                delimiter = ",\n";
+            }
+            writer.write("\n  ],\n");
+
+            writer.write("  \"pruned\": [");
+            delimiter = "\n";
+            for (final String coordinates : this.pruned) {
+                writer.write(delimiter);
+                writer.write("    " + quote(coordinates));
+                delimiter = ",\n";
+            }
+            writer.write("\n  ]\n");
+            writer.write("}\n");
+        }
+    }
+
+    private void mark(final RunSetArtifact artifact, final String status) {
+        final ArtifactMetrics metrics = this.artifacts.get(artifact.getPathFromHome());
+        if (metrics != null) {
+            metrics.status = status;
+        }
+    }
+
+    private int count(final String status) {
+        int count = 0;
+        for (final ArtifactMetrics metrics : this.artifacts.values()) {
+            if (metrics.status.equals(status)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int countDownloaded() {
+        int count = 0;
+        for (final ArtifactMetrics metrics : this.artifacts.values()) {
+            if (Boolean.TRUE.equals(metrics.downloaded)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private long throughput() {
+        final long installNanos = this.phases.getOrDefault(PHASE_COPY_SPEC, 0L) + this.phases.getOrDefault(PHASE_INSTALL, 0L);
+        if (installNanos <= 0) {
+            return 0;
+        }
+        return (long) (this.getInstalledBytes() * 1000000000.0 / installNanos);
+    }
+
+    private static String formatBytes(final long bytes) {
+        if (bytes < 1024L * 1024L) {
+            return String.format(Locale.ENGLISH, "%.1f KiB", bytes / 1024.0);
+        }
+        return String.format(Locale.ENGLISH, "%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String formatNanos(final long nanos) {
+        return String.format(Locale.ENGLISH, "%.2f s", nanos / 1000000000.0);
+    }
+
+    private static String quote(final String string) {
+        final StringBuilder builder = new StringBuilder(string.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x0020) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+        return builder.toString();
+    }
+
+    static final String PHASE_RESOLVE = "resolve";
+
+    static final String PHASE_RESOLVE_POMS = "resolvePoms";
+
+    static final String PHASE_LOCKFILE = "lockfile";
+
+    static final String PHASE_PROPERTIES = "properties";
+
+    static final String PHASE_COPY_SPEC = "copySpec";
+
+    static final String PHASE_INSTALL = "install";
+
+    private final String taskPath;
+
+    private final String embulkHome;
+
+    private final LinkedHashMap<String, Long> phases;
+
+    private final LinkedHashMap<String, ArtifactMetrics> artifacts;
+
+    private List<String> pruned;
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Repacks a JAR file into the Embulk home with all its entries uncompressed (STORED), so that classes are loaded without inflating.
+ *
+ * <p>The entries are written in the same order with the same names, contents, and modification times. Signatures in the JAR file
+ * stay valid as they are calculated from the uncompressed contents. The SHA-256 of the original JAR file is recorded in
+ * {@code <file>.original.sha256} next to the repacked file, because the repacked file no longer matches the checksum in
+ * the Maven repository. The source file, which is in Gradle's cache, is only read.
+ */
+final class StoredJarRepacker {
+    private StoredJarRepacker() {
+        // No instantiation.
+    }
+
+    static void repack(final Path source, final Path target, final boolean checksums) throws IOException {
+        final MessageDigest sha1 = ChecksumSidecars.newSha1();
+        final MessageDigest sha256 = RunSetManifest.newSha256();
+        final byte[] buffer = new byte[65536];
+        AtomicFiles.write(target, temporary -> repack(source, temporary, checksums, sha1, sha256, buffer));
+
+        if (checksums) {
+            ChecksumSidecars.write(target, sha1, sha256);
+        }
+        final byte[] originalSha256 = RunSetManifest.sha256(source).getBytes(StandardCharsets.US_ASCII);
+        AtomicFiles.write(originalChecksumFile(target), temporary -> Files.write(temporary, originalSha256));
+    }
+
+    private static void repack(
+            final Path source,
+            final Path target,
+            final boolean checksums,
+            final MessageDigest sha1,
+            final MessageDigest sha256,
+            final byte[] buffer) throws IOException {
+        try (final ZipFile zipFile = new ZipFile(source.toFile());
+                final OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(target));
+                final ZipOutputStream out = new ZipOutputStream(
+                        checksums ? new DigestOutputStream(new DigestOutputStream(fileOut, sha1), sha256) : fileOut)) {
+            out.setMethod(ZipOutputStream.STORED);
+            if (zipFile.getComment() != null) {
+                out.setComment(zipFile.getComment());
+            }
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                // The size and the CRC-32 of the uncompressed content are known from the central directory beforehand.
+                final ZipEntry stored = new ZipEntry(entry.getName());
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(entry.getSize());
+                stored.setCompressedSize(entry.getSize());
+                stored.setCrc(entry.getCrc());
+                stored.setTime(entry.getTime());
+                if (entry.getExtra() != null) {
+                    stored.setExtra(entry.getExtra());
+                }
+                if (entry.getComment() != null) {
+                    stored.setComment(entry.getComment());
+                }
+                out.putNextEntry(stored);
+                try (final InputStream in = zipFile.getInputStream(entry)) {
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    static Path originalChecksumFile(final Path target) {
+        return target.resolveSibling(target.getFileName().toString() + ORIGINAL_CHECKSUM_SUFFIX);
+    }
+
+    static final String ORIGINAL_CHECKSUM_SUFFIX = ".original.sha256";
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes a reproducible uncompressed tar archive in the ustar format.
+ *
+ * <p>Every entry is written as a regular file with the fixed mode 0644, the owner 0, and the modification time 0 in the given order
+ * so that the same files are always archived into the same bytes. Parent directories are not written as entries.
+ */
+final class TarArchive {
+    private TarArchive() {
+        // No instantiation.
+    }
+
+    /**
+     * Writes the files in the base directory into the tar archive.
+     *
+     * @param out  the output stream to write the tar archive into
+     * @param baseDir  the base directory
+     * @param paths  the paths of the files relative from the base directory, separated by '/', in the order to be archived
+     */
+    static void write(final OutputStream out, final Path baseDir, final List<String> paths) throws IOException {
+        for (final String path : paths) {
+            final Path file = baseDir.resolve(path);
+            final long size = Files.size(file);
+            out.write(header(path, size));
+            Files.copy(file, out);
+            final int padding = (int) ((BLOCK_SIZE - (size % BLOCK_SIZE)) % BLOCK_SIZE);
+            out.write(new byte[padding]);
+        }
+        // The end of an archive is marked by two blocks filled with zeros.
+        out.write(new byte[BLOCK_SIZE * 2]);
+    }
+
+    private static byte[] header(final String path, final long size) throws IOException {
+        final byte[] header = new byte[BLOCK_SIZE];
+        final byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        if (pathBytes.length <= 100) {
+            System.arraycopy(pathBytes, 0, header, 0, pathBytes.length);
+        } else {
+            // A long path is split into the "prefix" and the "name" fields at a '/'.
+            int split = -1;
+            for (int i = 0; i < pathBytes.length; i++) {
+                if (pathBytes[i] == '/' && i <= 155 && pathBytes.length - i - 1 <= 100) {
+                    split = i;
+                    break;
+                }
+            }
+            if (split < 0) {
+                throw new IOException("Path is too long to be archived in the ustar format: " + path);
+            }
+            System.arraycopy(pathBytes, split + 1, header, 0, pathBytes.length - split - 1);
+            System.arraycopy(pathBytes, 0, header, 345, split);
+        }
+        putOctal(header, 100, 8, 0644);  // mode
+        putOctal(header, 108, 8, 0);  // uid
+        putOctal(header, 116, 8, 0);  // gid
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, 0);  // mtime
+        header[156] = '0';  // typeflag: a regular file
+        putAscii(header, 257, "ustar\0");
+        putAscii(header, 263, "00");
+
+        // The checksum is calculated with the checksum field filled with spaces.
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (final byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        header[155] = ' ';
+        return header;
+    }
+
+    /**
+     * Puts a zero-padded octal number terminated by NUL into the field.
+     */
+    private static void putOctal(final byte[] header, final int offset, final int length, final long value) {
+        final String octal = Long.toOctalString(value);
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = octal.length(); i < length - 1; i++) {
+            builder.append('0');
+        }
+        builder.append(octal);
+        putAscii(header, offset, builder.toString());
+        header[offset + length - 1] = 0;
+    }
+
+    private static void putAscii(final byte[] header, final int offset, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    private static final int BLOCK_SIZE = 512;
+}
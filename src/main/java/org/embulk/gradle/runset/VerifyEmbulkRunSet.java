@@ -0,0 +1,221 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+
+/**
+ * A Gradle task to verify the installed Embulk home against the manifest recorded by {@code installEmbulkRunSet} with {@code sync true}.
+ *
+ * <p>It reports the artifacts missing in embulkHome, the artifacts modified after installed, and the unexpected files in the Maven
+ * repository in embulkHome. It fails if any of them is found.
+ *
+ * <p>By default, an installed file is considered unchanged if its size and its modification time are the same as recorded.
+ * Only the files whose modification times differ are hashed. With {@code --full}, all the files are hashed in parallel.
+ *
+ * <p>It verifies only the artifacts in the Maven repository in embulkHome, which are recorded in the manifest. It does not verify
+ * {@code embulk.properties}, the exploded JRuby, the gems in {@code lib/gems}, nor the other files in embulkHome. It fails if
+ * embulkHome has no manifest, as the manifest is written only by {@code installEmbulkRunSet} with {@code sync true}.
+ */
+public abstract class VerifyEmbulkRunSet extends DefaultTask {
+    public VerifyEmbulkRunSet() {
+        this.getFull().convention(false);
+        this.getParallelism().convention(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the Embulk home. It is the {@code embulkHome} of {@code installEmbulkRunSet} by default.
+     */
+    @Internal
+    public abstract DirectoryProperty getEmbulkHome();
+
+    /**
+     * Returns the Maven repository directory relative from the Embulk home, separated by '/'. It is the one of {@code installEmbulkRunSet} by default.
+     */
+    @Internal
+    public abstract Property<String> getM2RepoRelative();
+
+    /**
+     * Returns whether to hash all the installed files. It is {@code false} by default.
+     */
+    @Internal
+    @Option(option = "full", description = "Hashes all the installed files, not only the files whose modification times differ.")
+    public abstract Property<Boolean> getFull();
+
+    /**
+     * Returns the number of threads to hash the files. It is the number of available processors by default.
+     */
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    @TaskAction
+    public void verify() {
+        final Path home = this.getEmbulkHome().get().getAsFile().toPath();
+        if (!Files.isRegularFile(home.resolve(RunSetManifest.FILE_NAME))) {
+            throw new InvalidUserDataException(
+                    "No run set manifest is found in embulkHome \"" + home + "\". Install the run set with \"sync true\" to verify it.");
+        }
+
+        final long startNanos = System.nanoTime();
+        final Result result;
+        try {
+            result = verify(home, RunSetManifest.read(home), home.resolve(this.getM2RepoRelative().get()), this.getFull().get(), this.getParallelism().get());
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        for (final String path : result.missing) {
+            this.getLogger().lifecycle("Missing: {}", path);
+        }
+        for (final String path : result.modified) {
+            this.getLogger().lifecycle("Modified: {}", path);
+        }
+        for (final String path : result.unexpected) {
+            this.getLogger().lifecycle("Unexpected: {}", path);
+        }
+        final String summary = String.format(Locale.ENGLISH,
+                "Verified %d files in %.2f s (%d hashed): %d missing, %d modified, %d unexpected.",
+                result.verified, (System.nanoTime() - startNanos) / 1e9, result.hashed,
+                result.missing.size(), result.modified.size(), result.unexpected.size());
+        if (!result.missing.isEmpty() || !result.modified.isEmpty() || !result.unexpected.isEmpty()) {
+            throw new GradleException("embulkHome \"" + home + "\" does not match the run set manifest. " + summary);
+        }
+        this.getLogger().lifecycle(summary);
+    }
+
+    static Result verify(final Path home, final RunSetManifest manifest, final Path m2Repo, final boolean full, final int parallelism)
+            throws IOException {
+        final Result result = new Result();
+
+        // The fast pass: sizes and modification times.
+        final ArrayList<RunSetManifest.Entry> toHash = new ArrayList<>();
+        final HashSet<String> expected = new HashSet<>();
+        for (final RunSetManifest.Entry entry : manifest.getEntries()) {
+            if (entry.getInstalledSha256() == null) {
+                throw new InvalidUserDataException(
+                        "The run set manifest in embulkHome \"" + home + "\" is written by an older version. Run installEmbulkRunSet again.");
+            }
+            expected.add(entry.getPath());
+            for (final String companion : companionPaths(entry.getPath())) {
+                expected.add(companion);
+            }
+            result.verified++;
+
+            final Path file = home.resolve(entry.getPath());
+            if (!Files.isRegularFile(file)) {
+                result.missing.add(entry.getPath());
+            } else if (Files.size(file) != entry.getInstalledSize()) {
+                result.modified.add(entry.getPath());
+            } else if (full || Files.getLastModifiedTime(file).toMillis() != entry.getInstalledModifiedMillis()) {
+                toHash.add(entry);
+            }
+        }
+
+        // The hash pass: only the files not confirmed by the fast pass, unless full.
+        result.hashed = toHash.size();
+        if (!toHash.isEmpty()) {
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, toHash.size())));
+            try {
+                final ArrayList<Future<String>> hashes = new ArrayList<>();
+                for (final RunSetManifest.Entry entry : toHash) {
+                    hashes.add(executor.submit(() -> RunSetManifest.sha256(home.resolve(entry.getPath()))));
+                }
+                for (int i = 0; i < toHash.size(); i++) {
+                    if (!hashes.get(i).get().equals(toHash.get(i).getInstalledSha256())) {
+                        result.modified.add(toHash.get(i).getPath());
+                    }
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new GradleException("Interrupted while hashing the installed files.", ex);
+            } catch (final ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new GradleException("Failed to hash the installed files.", ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // Unexpected files in the Maven repository in embulkHome.
+        if (Files.isDirectory(m2Repo)) {
+            try (final Stream<Path> files = Files.walk(m2Repo)) {
+                files.filter(file -> !Files.isDirectory(file)).forEach(file -> {
+                    final String path = toSlashSeparated(home.relativize(file));
+                    if (!expected.contains(path)) {
+                        result.unexpected.add(path);
+                    }
+                });
+            }
+        }
+        return result;
+    }
+
+    static final class Result {
+        int verified;
+
+        int hashed;
+
+        final TreeSet<String> missing = new TreeSet<>();
+
+        final TreeSet<String> modified = new TreeSet<>();
+
+        final TreeSet<String> unexpected = new TreeSet<>();
+    }
+
+    /**
+     * Returns the paths of the files that {@code installEmbulkRunSet} may write next to an artifact.
+     */
+    private static List<String> companionPaths(final String path) {
+        final ArrayList<String> paths = new ArrayList<>(ChecksumSidecars.sidecarPaths(path));
+        paths.add(path + StoredJarRepacker.ORIGINAL_CHECKSUM_SUFFIX);
+        if (path.endsWith(".pom")) {
+            paths.add(path.substring(0, path.length() - ".pom".length()) + ".classpath");
+        }
+        return paths;
+    }
+
+    private static String toSlashSeparated(final Path path) {
+        final ArrayList<String> names = new ArrayList<>();
+        for (final Path name : path) {
+            names.add(name.toString());
+        }
+        return String.join("/", names);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2025 The Embulk project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.embulk.gradle.runset;
+
+import static org.embulk.gradle.runset.Util.createSyntheticMavenRepository;
+import static org.embulk.gradle.runset.Util.prepareProjectDir;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A benchmark of {@code installEmbulkRunSet} with a synthetic local Maven repository.
+ *
+ * <p>It is excluded from {@code test}. Run it by {@code ./gradlew benchmark}, with the parameters below as Gradle properties.
+ *
+ * <ul>
+ * <li>{@code -Pbenchmark.plugins=100}: the number of synthetic plugins
+ * <li>{@code -Pbenchmark.depth=3}: the depth of the transitive dependencies of each plugin
+ * <li>{@code -Pbenchmark.jarSize=65536}: the bytes to pad each JAR file with
+ * <li>{@code -Pbenchmark.iterations=3}: the number of iterations, whose medians are reported
+ * <li>{@code -Pbenchmark.repackStored=false}: whether to install the JAR files repacked with uncompressed entries
+ * </ul>
+ *
+ * <p>Each iteration creates a new project, and measures the wall-clock time of the builds below in the Gradle daemon of TestKit.
+ * The resolution time and the install time are taken from the report of {@code installEmbulkRunSet}.
+ *
+ * <ul>
+ * <li>configurationCold: {@code help} for the first time in the project
+ * <li>configurationWarm: {@code help} again
+ * <li>installCold: {@code installEmbulkRunSet} for the first time
+ * <li>installUpToDate: {@code installEmbulkRunSet} again
+ * <li>readJars: reading all the entries of the installed JAR files, as class loading does
+ * </ul>
+ *
+ * <p>A tab-separated line of the parameters and the medians is appended to the file specified by the system property
+ * "benchmark.output" so that results of different revisions can be compared.
+ */
+@Tag("benchmark")
+public class BenchmarkEmbulkRunSetPlugin {
+    @Test
+    public void benchmarkInstall(@TempDir Path tempDir) throws IOException {
+        final int plugins = Integer.getInteger("benchmark.plugins", 100);
+        final int depth = Integer.getInteger("benchmark.depth", 3);
+        final int jarSize = Integer.getInteger("benchmark.jarSize", 65536);
+        final int iterations = Integer.getInteger("benchmark.iterations", 3);
+        final boolean repackStored = Boolean.getBoolean("benchmark.repackStored");
+
+        final Path repositoryDir = tempDir.resolve("repo");
+        createSyntheticMavenRepository(repositoryDir, plugins, depth, jarSize);
+
+        final LinkedHashMap<String, List<Long>> measurements = new LinkedHashMap<>();
+        for (final String metric : METRICS) {
+            measurements.put(metric, new ArrayList<>());
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            final Path projectDir = prepareProjectDir(Files.createDirectory(tempDir.resolve("iteration" + i)), "benchmark");
+            final String[] properties = {
+                "-PpluginCount=" + plugins,
+                "-Prepository=" + repositoryDir.toUri(),
+                "-PrepackStored=" + repackStored,
+            };
+
+            measurements.get("configurationColdMillis").add(timeGradle(projectDir, properties, "help"));
+            measurements.get("configurationWarmMillis").add(timeGradle(projectDir, properties, "help"));
+            measurements.get("installColdMillis").add(timeGradle(projectDir, properties, "installEmbulkRunSet"));
+
+            final String report = new String(
+                    Files.readAllBytes(projectDir.resolve("build/reports/embulkRunSet/installEmbulkRunSet.json")), StandardCharsets.UTF_8);
+            measurements.get("resolveMillis").add(phaseMillis(report, "resolve") + phaseMillis(report, "resolvePoms"));
+            measurements.get("installMillis").add(phaseMillis(report, "copySpec") + phaseMillis(report, "install"));
+
+            measurements.get("installUpToDateMillis").add(timeGradle(projectDir, properties, "installEmbulkRunSet"));
+            measurements.get("readJarsMillis").add(timeReadJars(projectDir.resolve("build/benchmark")));
+        }
+
+        final StringBuilder header = new StringBuilder("plugins\tdepth\tjarSize\titerations\trepackStored");
+        final StringBuilder line = new StringBuilder(plugins + "\t" + depth + "\t" + jarSize + "\t" + iterations + "\t" + repackStored);
+        for (final Map.Entry<String, List<Long>> measurement : measurements.entrySet()) {
+            header.append('\t').append(measurement.getKey());
+            line.append('\t').append(median(measurement.getValue()));
+        }
+        System.out.println(header);
+        System.out.println(line);
+
+        final String output = System.getProperty("benchmark.output");
+        if (output != null) {
+            final Path outputPath = Paths.get(output);
+            Files.createDirectories(outputPath.toAbsolutePath().getParent());
+            if (!Files.exists(outputPath)) {
+                Files.write(outputPath, Arrays.asList(header.toString()), StandardCharsets.UTF_8);
+            }
+            Files.write(outputPath, Arrays.asList(line.toString()), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Runs Gradle without the debug mode so that the build runs in the Gradle daemon of TestKit, and returns the wall-clock time.
+     */
+    private static long timeGradle(final Path projectDir, final String[] properties, final String task) {
+        final ArrayList<String> args = new ArrayList<>(Arrays.asList(properties));
+        args.add(task);
+        final long startNanos = System.nanoTime();
+        final BuildResult result = GradleRunner.create()
+                .withProjectDir(projectDir.toFile())
+                .withArguments(args)
+                .withPluginClasspath()
+                .build();
+        final long millis = (System.nanoTime() - startNanos) / 1000000L;
+        assertTrue(result.getOutput().contains("BUILD SUCCESSFUL"));
+        return millis;
+    }
+
+    /**
+     * Reads all the entries of the JAR files in the Embulk home, and returns the wall-clock time.
+     */
+    private static long timeReadJars(final Path embulkHome) throws IOException {
+        final ArrayList<Path> jars = new ArrayList<>();
+        try (final Stream<Path> files = Files.walk(embulkHome)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".jar")).forEach(jars::add);
+        }
+        final byte[] buffer = new byte[65536];
+        final long startNanos = System.nanoTime();
+        for (final Path jar : jars) {
+            try (final ZipFile zipFile = new ZipFile(jar.toFile())) {
+                for (final ZipEntry entry : Collections.list(zipFile.entries())) {
+                    try (final InputStream in = zipFile.getInputStream(entry)) {
+                        while (in.read(buffer) >= 0) {
+                            // Just reading.
+                        }
+                    }
+                }
+            }
+        }
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+
+    private static long phaseMillis(final String report, final String phase) {
+        final Matcher matcher = Pattern.compile("\\{\"name\": \"" + phase + "\", \"millis\": (\\d+)\\}").matcher(report);
+        if (matcher.find()) {
+            return Long.parseLong(matcher.group(1));
+        }
+        return 0L;
+    }
+
+    private static long median(final List<Long> values) {
+        final ArrayList<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static final List<String> METRICS = Collections.unmodifiableList(Arrays.asList(
+            "configurationColdMillis",
+            "configurationWarmMillis",
+            "resolveMillis",
+            "installMillis",
+            "installColdMillis",
+            "installUpToDateMillis",
+            "readJarsMillis"));
+}
@@ -16,22 +16,56 @@
 
 package org.embulk.gradle.runset;
 
+import static org.embulk.gradle.runset.Util.assertFileDoesContain;
+import static org.embulk.gradle.runset.Util.assertFileDoesNotContain;
+import static org.embulk.gradle.runset.Util.compileClass;
+import static org.embulk.gradle.runset.Util.createModule;
+import static org.embulk.gradle.runset.Util.createSyntheticMavenRepository;
+import static org.embulk.gradle.runset.Util.createSyntheticModule;
+import static org.embulk.gradle.runset.Util.createSyntheticModuleWithDependencies;
+import static org.embulk.gradle.runset.Util.deleteFilesRecursively;
+import static org.embulk.gradle.runset.Util.jarEntriesOfNames;
 import static org.embulk.gradle.runset.Util.prepareProjectDir;
 import static org.embulk.gradle.runset.Util.runGradle;
+import static org.embulk.gradle.runset.Util.runGradleAndFail;
+import static org.embulk.gradle.runset.Util.syntheticModulePath;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.TaskOutcome;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -73,4 +107,812 @@ public class TestEmbulkRunSetPlugin  {
                        .resolve("9.1.15.0")
                        .resolve("jruby-complete-9.1.15.0.jar")));
     }
+
+    @Test
+    public void testConfigurationCache(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "configurationCache");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        final BuildResult storing = runGradle(projectDir, "installEmbulkRunSet", "--configuration-cache");
+        assertTrue(storing.getOutput().contains("Configuration cache entry stored."));
+
+        final Path embulkHome = projectDir.resolve("build/configurationCache");
+        final Path plugin2 = embulkHome.resolve("lib/m2/repository").resolve(syntheticModulePath("embulk-input-synthetic2"));
+        assertTrue(Files.isRegularFile(plugin2.resolve("embulk-input-synthetic2-0.1.0.jar")));
+        deleteFilesRecursively(embulkHome);
+
+        // The task restored from the configuration cache installs the same artifacts from the resolution stored in the entry.
+        final BuildResult reusing = runGradle(projectDir, "installEmbulkRunSet", "--configuration-cache");
+        assertTrue(reusing.getOutput().contains("Reusing configuration cache."));
+        assertEquals(TaskOutcome.SUCCESS, reusing.task(":installEmbulkRunSet").getOutcome());
+        assertTrue(Files.isRegularFile(plugin2.resolve("embulk-input-synthetic2-0.1.0.jar")));
+        assertTrue(Files.isRegularFile(embulkHome.resolve("lib/m2/repository").resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar")));
+        assertFileDoesContain(embulkHome.resolve("embulk.properties"), "key=value");
+    }
+
+    @Test
+    public void testDeferredResolution(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "deferredResolution");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 1);
+
+        // Configuring all the tasks succeeds without resolving "embulk-input-missing", which does not exist in the repository.
+        final BuildResult configured = runGradle(projectDir, "tasks", "--all");
+        assertTrue(configured.getOutput().contains("installEmbulkRunSet"));
+        assertFalse(configured.getOutput().contains("Could not find org.embulk.synthetic:embulk-input-missing:0.1.0"));
+
+        final BuildResult failed = runGradleAndFail(projectDir, "installEmbulkRunSet");
+        assertTrue(failed.getOutput().contains("Could not find org.embulk.synthetic:embulk-input-missing:0.1.0"));
+    }
+
+    @Test
+    public void testSingleGraph(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "singleGraph");
+        final Path repo = projectDir.resolve("repo");
+        createSyntheticModule(repo, "synthetic-legacy", "0.1.0");
+        createSyntheticModuleWithDependencies(repo, "synthetic-shared", "0.1.0", "synthetic-legacy:0.1.0");
+        createSyntheticModule(repo, "synthetic-shared", "0.2.0");
+        createSyntheticModule(repo, "synthetic-ranged", "0.1.0");
+        createSyntheticModule(repo, "synthetic-ranged", "0.2.0");
+        createSyntheticModule(repo, "synthetic-ranged", "0.3.0");
+        // The versions are listed in "maven-metadata.xml" to resolve a version range.
+        Files.write(repo.resolve(syntheticModulePath("synthetic-ranged")).getParent().resolve("maven-metadata.xml"), Arrays.asList(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                "<metadata>",
+                "  <groupId>org.embulk.synthetic</groupId>",
+                "  <artifactId>synthetic-ranged</artifactId>",
+                "  <versioning>",
+                "    <versions>",
+                "      <version>0.1.0</version>",
+                "      <version>0.2.0</version>",
+                "      <version>0.3.0</version>",
+                "    </versions>",
+                "  </versioning>",
+                "</metadata>"), StandardCharsets.UTF_8);
+        createSyntheticModuleWithDependencies(repo, "embulk-input-old", "0.1.0", "synthetic-shared:0.1.0", "synthetic-ranged:[0.1.0,0.3.0)");
+        createSyntheticModuleWithDependencies(repo, "embulk-input-new", "0.1.0", "synthetic-shared:0.2.0", "synthetic-ranged:0.2.0");
+
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet");
+
+        // The evicted "synthetic-shared:0.1.0" is installed with its own transitive dependency.
+        final Path m2Repo = projectDir.resolve("build/singleGraph/lib/m2/repository");
+        assertTrue(result.getOutput().contains("Resolving org.embulk.synthetic:synthetic-shared:0.1.0 evicted"));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-shared", "0.1.0")).resolve("synthetic-shared-0.1.0.jar")));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-shared", "0.2.0")).resolve("synthetic-shared-0.2.0.jar")));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-legacy", "0.1.0")).resolve("synthetic-legacy-0.1.0.jar")));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-legacy", "0.1.0")).resolve("synthetic-legacy-0.1.0.pom")));
+
+        // The range "[0.1.0,0.3.0)" is satisfied by the selected "synthetic-ranged:0.2.0", and is not evicted.
+        assertFalse(result.getOutput().contains("Resolving org.embulk.synthetic:synthetic-ranged"));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-ranged", "0.2.0")).resolve("synthetic-ranged-0.2.0.jar")));
+        assertFalse(Files.exists(m2Repo.resolve(syntheticModulePath("synthetic-ranged", "0.1.0"))));
+        assertFalse(Files.exists(m2Repo.resolve(syntheticModulePath("synthetic-ranged", "0.3.0"))));
+
+        // The version forced by "align" is not evicted.
+        runGradle(projectDir, "installEmbulkRunSet", "-Paligned");
+
+        final Path alignedM2Repo = projectDir.resolve("build/singleGraphAligned/lib/m2/repository");
+        assertTrue(Files.isRegularFile(alignedM2Repo.resolve(syntheticModulePath("synthetic-shared", "0.2.0")).resolve("synthetic-shared-0.2.0.jar")));
+        assertFalse(Files.exists(alignedM2Repo.resolve(syntheticModulePath("synthetic-shared", "0.1.0"))));
+        assertFalse(Files.exists(alignedM2Repo.resolve(syntheticModulePath("synthetic-legacy", "0.1.0"))));
+    }
+
+    @Test
+    public void testMavenVersion() {
+        // Trailing zeros are ignored as Maven does.
+        assertEquals(0, MavenVersion.compare("1.0", "1.0.0"));
+        assertEquals(0, MavenVersion.compare("1", "1.0-ga"));
+        assertTrue(MavenVersion.compare("1.0-SNAPSHOT", "1.0") < 0);
+        assertTrue(MavenVersion.compare("1.0-alpha-1", "1.0-beta-1") < 0);
+        assertTrue(MavenVersion.compare("1.0-rc1", "1.0") < 0);
+        assertTrue(MavenVersion.compare("1.0", "1.0-sp1") < 0);
+        assertTrue(MavenVersion.compare("1.0", "1.0.1") < 0);
+        assertTrue(MavenVersion.compare("1.9", "1.10") < 0);
+
+        assertTrue(MavenVersionRange.isSatisfiedBy("[1.0.0,2.0)", "1.0"));
+        assertFalse(MavenVersionRange.isSatisfiedBy("(1.0,2.0)", "1.0.0"));
+        assertFalse(MavenVersionRange.isSatisfiedBy("[1.0,2.0)", "1.0-SNAPSHOT"));
+    }
+
+    @Test
+    public void testParallel(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "parallel");
+        // The JAR files are padded so that each work item takes a while.
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 30, 0, 1024 * 1024);
+
+        // A temporary file left by an interrupted install is deleted.
+        final Path m2Repo = projectDir.resolve("build/parallel/lib/m2/repository");
+        final Path leftover = m2Repo.resolve(syntheticModulePath("synthetic-common")).resolve(".synthetic-common-0.1.0.jar.0.embulk-runset-tmp");
+        Files.createDirectories(leftover.getParent());
+        Files.write(leftover, new byte[] { 0x50, 0x4b });
+
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet", "--max-workers=4");
+
+        // The work items run on different threads at the same time.
+        int running = 0;
+        int maxRunning = 0;
+        final HashSet<String> threads = new HashSet<>();
+        for (final String line : result.getOutput().split("\r?\n")) {
+            if (line.startsWith("Installing ") && line.contains(" files in a work item on ")) {
+                threads.add(line.substring(line.indexOf(" on ") + 4));
+                maxRunning = Math.max(maxRunning, ++running);
+            } else if (line.startsWith("Installed ") && line.contains(" files in a work item on ")) {
+                running--;
+            }
+        }
+        assertTrue(threads.size() > 1, "The work items ran on one thread.");
+        assertTrue(maxRunning > 1, "No work items ran in parallel.");
+
+        for (int i = 1; i <= 30; i++) {
+            final Path modulePath = m2Repo.resolve(syntheticModulePath("embulk-input-synthetic" + i));
+            assertTrue(Files.isRegularFile(modulePath.resolve("embulk-input-synthetic" + i + "-0.1.0.jar")));
+            assertTrue(Files.isRegularFile(modulePath.resolve("embulk-input-synthetic" + i + "-0.1.0.pom")));
+        }
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar")));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.pom")));
+        assertTrue(Arrays.equals(
+                Files.readAllBytes(projectDir.resolve("repo").resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar")),
+                Files.readAllBytes(m2Repo.resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar"))));
+        assertFalse(Files.exists(leftover));
+    }
+
+    @Test
+    public void testInstallMode(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "installMode");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 1);
+        final Path jar = Paths.get("lib/m2/repository").resolve(syntheticModulePath("embulk-input-synthetic1")).resolve("embulk-input-synthetic1-0.1.0.jar");
+
+        runGradle(projectDir, "installEmbulkRunSet", "-PinstallMode=symlink");
+
+        // Gradle resolves the files in a local file repository in place without copying them into its cache.
+        final Path resolved = projectDir.resolve("repo").resolve(syntheticModulePath("embulk-input-synthetic1")).resolve("embulk-input-synthetic1-0.1.0.jar");
+
+        // The symbolic link points to the resolved file by its absolute path.
+        final Path symlink = projectDir.resolve("build/symlink").resolve(jar);
+        assertTrue(Files.isSymbolicLink(symlink));
+        assertTrue(Files.readSymbolicLink(symlink).isAbsolute());
+        assertTrue(Files.isSameFile(resolved, Files.readSymbolicLink(symlink)));
+
+        // A stale file at the target is replaced by renaming a new link onto it.
+        final Path hardlink = projectDir.resolve("build/hardlink").resolve(jar);
+        Files.createDirectories(hardlink.getParent());
+        Files.write(hardlink, Arrays.asList("stale"), StandardCharsets.UTF_8);
+
+        runGradle(projectDir, "installEmbulkRunSet", "-PinstallMode=hardlink");
+
+        // The hard link shares the resolved file.
+        assertFalse(Files.isSymbolicLink(hardlink));
+        assertTrue(Files.isSameFile(resolved, hardlink));
+        try (final Stream<Path> siblings = Files.list(hardlink.getParent())) {
+            assertFalse(siblings.anyMatch(sibling -> sibling.getFileName().toString().endsWith(".embulk-runset-tmp")));
+        }
+    }
+
+    @Test
+    public void testInstallModeFallback(@TempDir Path tempDir) throws IOException {
+        final Path source = tempDir.resolve("source.jar");
+        Files.write(source, "synthetic".getBytes(StandardCharsets.UTF_8));
+
+        // A ZIP file system supports neither hard links nor symbolic links, and the file is copied instead.
+        final URI zipUri = URI.create("jar:" + tempDir.resolve("links.zip").toUri().toString());
+        try (final FileSystem zip = FileSystems.newFileSystem(zipUri, Collections.singletonMap("create", "true"))) {
+            for (final InstallMode installMode : Arrays.asList(InstallMode.HARDLINK, InstallMode.SYMLINK)) {
+                final Path target = zip.getPath("/lib/" + installMode + ".jar");
+                installMode.install(source, target);
+                assertTrue(Files.isRegularFile(target));
+                assertFalse(Files.isSymbolicLink(target));
+                assertEquals("synthetic", new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testSync(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "sync");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 3);
+
+        runGradle(projectDir, "installEmbulkRunSet", "-PpluginCount=3");
+
+        final Path m2Repo = projectDir.resolve("build/sync/lib/m2/repository");
+        final Path plugin3 = m2Repo.resolve(syntheticModulePath("embulk-input-synthetic3"));
+        assertTrue(Files.isRegularFile(plugin3.resolve("embulk-input-synthetic3-0.1.0.jar")));
+        assertTrue(Files.isRegularFile(projectDir.resolve("build/sync/.embulk-runset-manifest")));
+
+        runGradle(projectDir, "installEmbulkRunSet", "-PpluginCount=2");
+
+        assertFalse(Files.exists(plugin3));
+        final Path report = projectDir.resolve("build/reports/embulkRunSet/installEmbulkRunSet.json");
+        assertFileDoesContain(report, "\"unchanged\": 6,");
+        assertFileDoesContain(report, "\"installed\": 0,");
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("embulk-input-synthetic2")).resolve("embulk-input-synthetic2-0.1.0.jar")));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar")));
+    }
+
+    @Test
+    public void testUpToDate(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "upToDate");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        final BuildResult first = runGradle(projectDir, "installEmbulkRunSet");
+        assertEquals(TaskOutcome.SUCCESS, first.task(":installEmbulkRunSet").getOutcome());
+        final Path propertiesPath = projectDir.resolve("build/upToDate/embulk.properties");
+        final byte[] properties = Files.readAllBytes(propertiesPath);
+        // It has a fixed comment instead of a timestamp, and its keys are sorted.
+        assertEquals(
+                Arrays.asList("#Generated by the \"org.embulk.embulk-runset\" Gradle plugin.", "another=another value", "key=value"),
+                Files.readAllLines(propertiesPath, StandardCharsets.UTF_8));
+
+        // The identical second run is up-to-date.
+        final BuildResult second = runGradle(projectDir, "installEmbulkRunSet");
+        assertEquals(TaskOutcome.UP_TO_DATE, second.task(":installEmbulkRunSet").getOutcome());
+        assertTrue(Arrays.equals(properties, Files.readAllBytes(propertiesPath)));
+
+        // A changed Embulk System Property runs the task again.
+        final BuildResult third = runGradle(projectDir, "installEmbulkRunSet", "-Pvalue=changed");
+        assertEquals(TaskOutcome.SUCCESS, third.task(":installEmbulkRunSet").getOutcome());
+        assertFileDoesContain(propertiesPath, "key=changed");
+
+        // The report is an output. Artifacts in a "file:" repository are used in place, not downloaded.
+        final Path report = projectDir.resolve("build/reports/embulkRunSet/installEmbulkRunSet.json");
+        assertFileDoesContain(report, "\"downloaded\": 0,");
+        assertFileDoesContain(report, "\"downloaded\": false");
+        Files.delete(report);
+        final BuildResult fourth = runGradle(projectDir, "installEmbulkRunSet", "-Pvalue=changed");
+        assertEquals(TaskOutcome.SUCCESS, fourth.task(":installEmbulkRunSet").getOutcome());
+        assertTrue(Files.isRegularFile(report));
+    }
+
+    @Test
+    public void testLockfile(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "lockfile");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        runGradle(projectDir, "installEmbulkRunSet");
+
+        final Path lockfile = projectDir.resolve("runset.lock");
+        assertTrue(Files.isRegularFile(lockfile));
+        assertFileDoesContain(lockfile, "artifact\torg.embulk.synthetic\tsynthetic-common\t0.1.0\tjar\tsynthetic-common-0.1.0.jar\t");
+
+        deleteFilesRecursively(projectDir.resolve("build/lockfile"));
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet");
+
+        assertTrue(result.getOutput().contains("Installing the artifacts listed in the run set lockfile"));
+        final Path m2Repo = projectDir.resolve("build/lockfile/lib/m2/repository");
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("embulk-input-synthetic2")).resolve("embulk-input-synthetic2-0.1.0.pom")));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar")));
+
+        final BuildResult upToDate = runGradle(projectDir, "installEmbulkRunSet");
+        assertEquals(TaskOutcome.UP_TO_DATE, upToDate.task(":installEmbulkRunSet").getOutcome());
+
+        // The lockfile is an input. The edited lockfile is verified again, and its wrong checksum fails.
+        final ArrayList<String> edited = new ArrayList<>();
+        for (final String line : Files.readAllLines(lockfile, StandardCharsets.UTF_8)) {
+            if (line.startsWith("artifact\torg.embulk.synthetic\tsynthetic-common\t0.1.0\tjar\t")) {
+                edited.add(line.substring(0, line.lastIndexOf('\t') + 1) + String.join("", Collections.nCopies(64, "0")));
+            } else {
+                edited.add(line);
+            }
+        }
+        Files.write(lockfile, edited, StandardCharsets.UTF_8);
+        final BuildResult mismatched = runGradleAndFail(projectDir, "installEmbulkRunSet");
+        assertTrue(mismatched.getOutput().contains("Checksum mismatch for "));
+    }
+
+    @Test
+    public void testClasspathManifest(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "classpathManifest");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        runGradle(projectDir, "installEmbulkRunSet");
+
+        final Path embulkHome = projectDir.resolve("build/classpathManifest");
+        final String manifestPath = "lib/m2/repository/org/embulk/synthetic/embulk-input-synthetic2/0.1.0/embulk-input-synthetic2-0.1.0.classpath";
+        final Path manifest = embulkHome.resolve(manifestPath);
+        assertTrue(Files.isRegularFile(manifest));
+        assertEquals(
+                Arrays.asList(
+                        "# Generated by the \"org.embulk.embulk-runset\" Gradle plugin.",
+                        "lib/m2/repository/org/embulk/synthetic/embulk-input-synthetic2/0.1.0/embulk-input-synthetic2-0.1.0.jar",
+                        "lib/m2/repository/org/embulk/synthetic/synthetic-common/0.1.0/synthetic-common-0.1.0.jar"),
+                Files.readAllLines(manifest));
+
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(embulkHome.resolve("embulk.properties"))) {
+            properties.load(in);
+        }
+        assertEquals(manifestPath, properties.getProperty("classpath_manifest.org.embulk.synthetic:embulk-input-synthetic2:0.1.0"));
+    }
+
+    @Test
+    public void testCds(@TempDir Path tempDir) throws IOException, InterruptedException {
+        assumeFalse(Integer.parseInt(System.getProperty("java.specification.version").replaceFirst("^1\\.", "")) < 13,
+                    "Dynamic AppCDS requires Java 13 or later.");
+
+        final Path projectDir = prepareProjectDir(tempDir, "cds");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+        // A plugin with a class, which is loaded in its own class loader in the training run.
+        final Path sourceDir = Files.createDirectories(tempDir.resolve("plugin"));
+        Files.write(sourceDir.resolve("CdsPlugin.java"), Arrays.asList("public class CdsPlugin {}"), StandardCharsets.UTF_8);
+        createModule(projectDir.resolve("repo"), "org.embulk.synthetic:embulk-input-cds:0.1.0", Collections.<String>emptyList(),
+                     Collections.singletonMap("CdsPlugin.class", compileClass(sourceDir.resolve("CdsPlugin.java"))));
+
+        final BuildResult result = runGradle(projectDir, "createEmbulkRunSetCds");
+
+        final Path embulkHome = projectDir.resolve("build/cds");
+        assertTrue(result.getOutput().contains("Hello from training with " + embulkHome));
+        assertTrue(Files.isRegularFile(projectDir.resolve("build/embulkRunSetCds/embulk.jsa")));
+        // The JVM options to use the archive are recorded in embulkHome.
+        final Path jvmArgumentsFile = embulkHome.resolve("embulk-cds.args");
+        assertFileDoesContain(jvmArgumentsFile, "\"-XX:SharedArchiveFile=" + projectDir.resolve("build/embulkRunSetCds/embulk.jsa") + "\"");
+        // The plugins are not on the classpath. Embulk loads them in their own class loaders.
+        assertFileDoesNotContain(jvmArgumentsFile, "embulk-input-synthetic2-0.1.0.jar");
+
+        // Both the core and the plugin are loaded from the archive.
+        final ProcessBuilder processBuilder = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "@" + jvmArgumentsFile, "-Xlog:class+load=info", "StubMain", "production")
+                .redirectErrorStream(true);
+        processBuilder.environment().put("EMBULK_HOME", embulkHome.toString());
+        final Process process = processBuilder.start();
+        process.getOutputStream().close();
+        final List<String> lines = new ArrayList<>();
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        assertEquals(0, process.waitFor(), String.join("\n", lines));
+        assertTrue(lines.stream().anyMatch(line -> line.contains(" StubMain source: shared objects file")), String.join("\n", lines));
+        assertTrue(lines.stream().anyMatch(line -> line.contains(" CdsPlugin source: shared objects file")), String.join("\n", lines));
+    }
+
+    @Test
+    public void testLayers(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "layers");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        runGradle(projectDir, "packageEmbulkRunSetLayers");
+
+        final Path index = projectDir.resolve("build/embulkRunSetLayers/layers.tsv");
+        final List<String> lines = Files.readAllLines(index);
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(1).startsWith("lib\t"));
+        assertTrue(lines.get(2).startsWith("plugin:org.embulk.synthetic:embulk-input-synthetic1:0.1.0\t"));
+        assertTrue(lines.get(3).startsWith("plugin:org.embulk.synthetic:embulk-input-synthetic2:0.1.0\t"));
+        assertTrue(lines.get(4).startsWith("properties\t"));
+        for (final String line : lines.subList(1, lines.size())) {
+            assertTrue(Files.isRegularFile(projectDir.resolve("build/embulkRunSetLayers").resolve(line.split("\t")[1] + ".tar")));
+        }
+
+        // The layers are reproducible.
+        deleteFilesRecursively(projectDir.resolve("build/embulkRunSetLayers"));
+        runGradle(projectDir, "packageEmbulkRunSetLayers", "--rerun-tasks");
+        assertEquals(lines, Files.readAllLines(index));
+    }
+
+    @Test
+    public void testRunSets(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "runSets");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        runGradle(projectDir, "installEmbulkRunSets");
+
+        final Path commonA = projectDir.resolve("build/jobA/lib/m2/repository")
+                .resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar");
+        final Path commonB = projectDir.resolve("build/jobB/lib/m2/repository")
+                .resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar");
+        assertTrue(Files.isRegularFile(commonA));
+        assertTrue(Files.isRegularFile(commonB));
+        assertTrue(Files.isRegularFile(projectDir.resolve("build/jobA/lib/m2/repository")
+                .resolve(syntheticModulePath("embulk-input-synthetic1")).resolve("embulk-input-synthetic1-0.1.0.jar")));
+        assertFalse(Files.exists(projectDir.resolve("build/jobB/lib/m2/repository").resolve(syntheticModulePath("embulk-input-synthetic1"))));
+        assertTrue(Files.isDirectory(projectDir.resolve("build/embulkRunSetStore/sha256")));
+        // Both are hard links to the same file in the store.
+        assertTrue(Files.isSameFile(commonA, commonB));
+        // The shared file has the default permissions as a file newly written, not read-only or private.
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            final Path probe = Files.write(tempDir.resolve("probe"), new byte[0]);
+            assertEquals(Files.getPosixFilePermissions(probe), Files.getPosixFilePermissions(commonA));
+        }
+    }
+
+    @Test
+    public void testAnalyze(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "analyze");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 1);
+        createSyntheticModule(projectDir.resolve("repo"), "synthetic-common", "0.2.0");
+
+        runGradle(projectDir, "analyzeEmbulkRunSet");
+
+        final Path footprint = projectDir.resolve("build/reports/embulkRunSet/footprint.txt");
+        assertFileDoesContain(footprint, "org.embulk.synthetic:embulk-input-synthetic1:0.1.0: 2 JARs");
+        assertFileDoesContain(footprint, "org.embulk.synthetic:synthetic-common: 0.1.0, 0.2.0");
+        assertFileDoesContain(footprint, "align \"org.embulk.synthetic:synthetic-common:0.2.0\"");
+        // Analysis does not install the run set.
+        assertFalse(Files.exists(projectDir.resolve("build/analyze")));
+
+        runGradle(projectDir, "installEmbulkRunSet", "-Paligned");
+
+        final Path m2Repo = projectDir.resolve("build/analyze/lib/m2/repository");
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("synthetic-common", "0.2.0")).resolve("synthetic-common-0.2.0.jar")));
+        assertFalse(Files.exists(m2Repo.resolve(syntheticModulePath("synthetic-common", "0.1.0"))));
+    }
+
+    @Test
+    public void testChecksums(@TempDir Path tempDir) throws IOException, NoSuchAlgorithmException {
+        final Path projectDir = prepareProjectDir(tempDir, "checksums");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        runGradle(projectDir, "installEmbulkRunSet");
+
+        final Path jar = projectDir.resolve("build/checksums/lib/m2/repository")
+                .resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar");
+        final byte[] bytes = Files.readAllBytes(jar);
+        assertEquals(
+                RunSetManifest.toHex(MessageDigest.getInstance("SHA-1").digest(bytes)),
+                new String(Files.readAllBytes(jar.resolveSibling("synthetic-common-0.1.0.jar.sha1")), StandardCharsets.US_ASCII));
+        assertEquals(
+                RunSetManifest.toHex(MessageDigest.getInstance("SHA-256").digest(bytes)),
+                new String(Files.readAllBytes(jar.resolveSibling("synthetic-common-0.1.0.jar.sha256")), StandardCharsets.US_ASCII));
+        assertTrue(Files.isRegularFile(jar.resolveSibling("synthetic-common-0.1.0.pom.sha1")));
+    }
+
+    @Test
+    public void testRepackStored(@TempDir Path tempDir) throws IOException, NoSuchAlgorithmException {
+        final Path projectDir = prepareProjectDir(tempDir, "repackStored");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        runGradle(projectDir, "installEmbulkRunSet");
+
+        final Path original = projectDir.resolve("repo")
+                .resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar");
+        final Path jar = projectDir.resolve("build/repackStored/lib/m2/repository")
+                .resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar");
+        final List<String> names = new ArrayList<>();
+        try (final ZipFile zipFile = new ZipFile(jar.toFile())) {
+            for (final ZipEntry entry : Collections.list(zipFile.entries())) {
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                names.add(entry.getName());
+            }
+        }
+        try (final ZipFile zipFile = new ZipFile(original.toFile())) {
+            final List<String> originalNames = new ArrayList<>();
+            for (final ZipEntry entry : Collections.list(zipFile.entries())) {
+                originalNames.add(entry.getName());
+            }
+            assertEquals(originalNames, names);
+        }
+
+        assertEquals(
+                RunSetManifest.toHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(original))),
+                new String(Files.readAllBytes(jar.resolveSibling("synthetic-common-0.1.0.jar.original.sha256")), StandardCharsets.US_ASCII));
+        // The checksum files are of the repacked file.
+        assertEquals(
+                RunSetManifest.toHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(jar))),
+                new String(Files.readAllBytes(jar.resolveSibling("synthetic-common-0.1.0.jar.sha256")), StandardCharsets.US_ASCII));
+        // POM files are not repacked.
+        assertFalse(Files.exists(jar.resolveSibling("synthetic-common-0.1.0.pom.original.sha256")));
+    }
+
+    @Test
+    public void testBuildCache(@TempDir Path tempDir) throws IOException {
+        final Path repositoryDir = tempDir.resolve("repo");
+        createSyntheticMavenRepository(repositoryDir, 2);
+
+        // The same build in two different directories shares the local build cache in tempDir.
+        final Path firstDir = prepareProjectDir(Files.createDirectory(tempDir.resolve("first")), "buildCache");
+        final BuildResult first = runGradle(firstDir, "installEmbulkRunSet", "--build-cache", "-Prepository=" + repositoryDir.toUri());
+        assertEquals(TaskOutcome.SUCCESS, first.task(":installEmbulkRunSet").getOutcome());
+
+        final Path secondDir = prepareProjectDir(Files.createDirectory(tempDir.resolve("second")), "buildCache");
+        final BuildResult second = runGradle(secondDir, "installEmbulkRunSet", "--build-cache", "-Prepository=" + repositoryDir.toUri());
+        assertEquals(TaskOutcome.FROM_CACHE, second.task(":installEmbulkRunSet").getOutcome());
+
+        final Path embulkHome = secondDir.resolve("build/buildCache");
+        assertTrue(Files.isRegularFile(embulkHome.resolve("lib/m2/repository")
+                .resolve(syntheticModulePath("embulk-input-synthetic2")).resolve("embulk-input-synthetic2-0.1.0.jar")));
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(embulkHome.resolve("embulk.properties"))) {
+            properties.load(in);
+        }
+        // JRuby is specified relatively from "m2_repo" so that the restored Embulk home works in the other directory.
+        assertEquals("maven:org.embulk.synthetic:synthetic-common:0.1.0", properties.getProperty("jruby"));
+
+        // A restore from the build cache would wipe embulkHome. It is not restored if embulkHome has a file not created by the task.
+        final Path thirdDir = prepareProjectDir(Files.createDirectory(tempDir.resolve("third")), "buildCache");
+        final Path userFile = Files.createDirectories(thirdDir.resolve("build/buildCache")).resolve("user.txt");
+        Files.write(userFile, "user".getBytes(StandardCharsets.UTF_8));
+        final BuildResult third = runGradle(thirdDir, "installEmbulkRunSet", "--build-cache", "-Prepository=" + repositoryDir.toUri());
+        assertEquals(TaskOutcome.SUCCESS, third.task(":installEmbulkRunSet").getOutcome());
+        assertTrue(third.getOutput().contains("Gradle does not know how file 'build/buildCache' was created"));
+        assertTrue(Files.isRegularFile(userFile));
+    }
+
+    @Test
+    public void testPropertiesOnly(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "propertiesOnly");
+
+        // The task is executed to write "embulk.properties" even with no artifact to install.
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet");
+        assertEquals(TaskOutcome.SUCCESS, result.task(":installEmbulkRunSet").getOutcome());
+        assertFileDoesContain(projectDir.resolve("build/propertiesOnly/embulk.properties"), "key=value");
+    }
+
+    @Test
+    public void testLocalRepository(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "localRepository");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+        // The local repository has only "synthetic-common" and "embulk-input-synthetic1".
+        createSyntheticMavenRepository(projectDir.resolve("local"), 1);
+
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(result.getOutput().contains("Found 4 of 6 artifacts in the local repositories."));
+
+        final Path m2Repo = projectDir.resolve("build/localRepository/lib/m2/repository");
+        for (final String artifactId : Arrays.asList("synthetic-common", "embulk-input-synthetic1")) {
+            final Path jar = syntheticModulePath(artifactId).resolve(artifactId + "-0.1.0.jar");
+            assertTrue(Files.isSameFile(projectDir.resolve("local").resolve(jar), m2Repo.resolve(jar)));
+        }
+        final Path missingJar = syntheticModulePath("embulk-input-synthetic2").resolve("embulk-input-synthetic2-0.1.0.jar");
+        assertTrue(Files.isRegularFile(m2Repo.resolve(missingJar)));
+        assertFalse(Files.exists(projectDir.resolve("local").resolve(missingJar)));
+    }
+
+    @Test
+    public void testLocalRepositoryClassifier(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "localRepositoryClassifier");
+        final Path repo = projectDir.resolve("repo");
+        final Path local = projectDir.resolve("local");
+        createSyntheticMavenRepository(repo, 0);
+        createSyntheticMavenRepository(local, 0);
+        final Path commonDir = syntheticModulePath("synthetic-common");
+        Files.copy(repo.resolve(commonDir).resolve("synthetic-common-0.1.0.jar"), repo.resolve(commonDir).resolve("synthetic-common-0.1.0-natives.jar"));
+
+        // The plugin depends on "synthetic-common" transitively with a classifier.
+        createModule(repo, "org.embulk.synthetic:embulk-input-classified:0.1.0",
+                     Arrays.asList("org.embulk.synthetic:synthetic-common:0.1.0:natives"),
+                     jarEntriesOfNames("org/embulk/synthetic/embulk_input_classified.txt"));
+
+        // The local repository has "synthetic-common" only without the classifier. The classified JAR is fetched through Gradle.
+        final Path nativesJar = commonDir.resolve("synthetic-common-0.1.0-natives.jar");
+        final Path m2Repo = projectDir.resolve("build/localRepositoryClassifier/lib/m2/repository");
+        runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(Files.isSameFile(repo.resolve(nativesJar), m2Repo.resolve(nativesJar)));
+        assertFalse(Files.exists(m2Repo.resolve(commonDir).resolve("synthetic-common-0.1.0.jar")));
+
+        // The classified JAR is taken from the local repository once it is there.
+        Files.copy(repo.resolve(nativesJar), local.resolve(nativesJar));
+        deleteFilesRecursively(projectDir.resolve("build"));
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(result.getOutput().contains("Found 2 of 4 artifacts in the local repositories."));
+        assertTrue(Files.isSameFile(local.resolve(nativesJar), m2Repo.resolve(nativesJar)));
+    }
+
+    @Test
+    public void testVerify(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "verify");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+
+        runGradle(projectDir, "installEmbulkRunSet");
+
+        final BuildResult verified = runGradle(projectDir, "verifyEmbulkRunSet");
+        assertTrue(verified.getOutput().contains("(0 hashed): 0 missing, 0 modified, 0 unexpected."));
+        final BuildResult verifiedFully = runGradle(projectDir, "verifyEmbulkRunSet", "--full");
+        assertTrue(verifiedFully.getOutput().contains("(6 hashed): 0 missing, 0 modified, 0 unexpected."));
+
+        final Path m2Repo = projectDir.resolve("build/verify/lib/m2/repository");
+        final Path jar1 = m2Repo.resolve(syntheticModulePath("embulk-input-synthetic1")).resolve("embulk-input-synthetic1-0.1.0.jar");
+        final Path jar2 = m2Repo.resolve(syntheticModulePath("embulk-input-synthetic2")).resolve("embulk-input-synthetic2-0.1.0.jar");
+        final byte[] bytes = Files.readAllBytes(jar1);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(jar1, bytes);
+        Files.delete(jar2);
+        Files.write(m2Repo.resolve("unexpected.jar"), new byte[0]);
+
+        final BuildResult failed = runGradleAndFail(projectDir, "verifyEmbulkRunSet");
+        assertTrue(failed.getOutput().contains("Modified: lib/m2/repository/org/embulk/synthetic/embulk-input-synthetic1/0.1.0/embulk-input-synthetic1-0.1.0.jar"));
+        assertTrue(failed.getOutput().contains("Missing: lib/m2/repository/org/embulk/synthetic/embulk-input-synthetic2/0.1.0/embulk-input-synthetic2-0.1.0.jar"));
+        assertTrue(failed.getOutput().contains("Unexpected: lib/m2/repository/unexpected.jar"));
+        assertTrue(failed.getOutput().contains("1 missing, 1 modified, 1 unexpected."));
+    }
+
+    @Test
+    public void testEmbulkCore(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "embulkCore");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+        // A POM-only "embulk-core" which depends on "synthetic-common".
+        createModule(projectDir.resolve("repo"), "org.embulk:embulk-core:0.11.5",
+                     Arrays.asList("org.embulk.synthetic:synthetic-common:0.1.0"), null);
+
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(result.getOutput().contains("Pruned 1 modules provided by Embulk core: org.embulk.synthetic:synthetic-common:0.1.0"));
+
+        final Path m2Repo = projectDir.resolve("build/embulkCore/lib/m2/repository");
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("embulk-input-synthetic1")).resolve("embulk-input-synthetic1-0.1.0.jar")));
+        assertTrue(Files.isRegularFile(m2Repo.resolve(syntheticModulePath("embulk-input-synthetic2")).resolve("embulk-input-synthetic2-0.1.0.jar")));
+        assertFalse(Files.exists(m2Repo.resolve(syntheticModulePath("synthetic-common"))));
+        assertFileDoesContain(projectDir.resolve("build/reports/embulkRunSet/installEmbulkRunSet.json"), "\"org.embulk.synthetic:synthetic-common:0.1.0\"");
+    }
+
+    @Test
+    public void testExplodedJruby(@TempDir Path tempDir) throws IOException, URISyntaxException {
+        final Path projectDir = prepareProjectDir(tempDir, "explodedJruby");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 1);
+        // A fake "jruby-complete" with a part of the JRuby home in it.
+        createModule(projectDir.resolve("repo"), "org.jruby:jruby-complete:9.4.5.0", Collections.<String>emptyList(), jarEntriesOfNames(
+                "org/jruby/Ruby.class",
+                "META-INF/jruby.home/lib/ruby/stdlib/set.rb",
+                "META-INF/jruby.home/lib/ruby/stdlib/json/common.rb"));
+
+        // Only the directories created by the plugin are deleted next to the exploded JRuby.
+        final Path embulkHome = projectDir.resolve("build/explodedJruby");
+        final Path userDir = Files.createDirectories(embulkHome.resolve("jruby/user"));
+        Files.write(userDir.resolve("user.txt"), Arrays.asList("user"), StandardCharsets.UTF_8);
+        final Path oldExploded = Files.createDirectories(embulkHome.resolve("jruby/jruby-complete-9.4.4.0"));
+        Files.write(oldExploded.resolve(".embulk-runset-exploded"), Arrays.asList("old"), StandardCharsets.US_ASCII);
+        final Path temporary = Files.createDirectories(embulkHome.resolve("jruby/.jruby-complete-9.4.5.0.killed.embulk-runset-tmp"));
+
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(result.getOutput().contains("Exploded JRuby into "));
+        assertTrue(Files.isRegularFile(userDir.resolve("user.txt")));
+        assertFalse(Files.exists(oldExploded));
+        assertFalse(Files.exists(temporary));
+
+        final Path exploded = embulkHome.resolve("jruby/jruby-complete-9.4.5.0");
+        assertTrue(Files.isRegularFile(exploded.resolve("org/jruby/Ruby.class")));
+        assertTrue(Files.isRegularFile(exploded.resolve("META-INF/jruby.home/lib/ruby/stdlib/json/common.rb")));
+        assertEquals(Arrays.asList(".", "..", "json", "set.rb"),
+                     Files.readAllLines(exploded.resolve("META-INF/jruby.home/lib/ruby/stdlib/.jrubydir"), StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList(".", "lib"),
+                     Files.readAllLines(exploded.resolve("META-INF/jruby.home/.jrubydir"), StandardCharsets.UTF_8));
+
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(embulkHome.resolve("embulk.properties"))) {
+            properties.load(in);
+        }
+        final String jruby = properties.getProperty("jruby");
+        assertTrue(jruby.endsWith("/"));
+        assertTrue(Files.isSameFile(exploded, Paths.get(new URI(jruby))));
+    }
+
+    @Test
+    public void testGems(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "gems");
+        // A stub "jruby-complete" whose "gem install" only creates a file for each gem in the install directory.
+        final Path sourceDir = Files.createDirectories(tempDir.resolve("stub/org/jruby"));
+        Files.write(sourceDir.resolve("Main.java"), Arrays.asList(
+                "package org.jruby;",
+                "import java.nio.file.Files;",
+                "import java.nio.file.Path;",
+                "import java.nio.file.Paths;",
+                "public class Main {",
+                "    public static void main(final String[] args) throws Exception {",
+                "        Path installDir = null;",
+                "        for (int i = 0; i < args.length; i++) {",
+                "            if (args[i].equals(\"--install-dir\")) {",
+                "                installDir = Paths.get(args[++i]);",
+                "            } else if (args[i].endsWith(\".gem\")) {",
+                "                final String name = args[i].substring(0, args[i].length() - 4);",
+                "                Files.createDirectories(installDir.resolve(\"specifications\"));",
+                "                Files.write(installDir.resolve(\"specifications\").resolve(name + \".gemspec\"), Files.readAllBytes(Paths.get(args[i])));",
+                "            }",
+                "        }",
+                "    }",
+                "}"), StandardCharsets.UTF_8);
+        createModule(projectDir.resolve("repo"), "org.jruby:jruby-complete:9.4.5.0", Collections.<String>emptyList(),
+                     Collections.singletonMap("org/jruby/Main.class", compileClass(sourceDir.resolve("Main.java"))));
+        final Path gemsDir = Files.createDirectories(projectDir.resolve("gems"));
+        Files.write(gemsDir.resolve("embulk-input-gemmy-0.1.0.gem"), Arrays.asList("embulk-input-gemmy"), StandardCharsets.UTF_8);
+
+        // JRuby runs by the java executable set by gemJavaExecutable.
+        final String missingJava = tempDir.resolve("missing/bin/java").toString();
+        final BuildResult failed = runGradleAndFail(projectDir, "installEmbulkRunSet", "-PgemJavaExecutable=" + missingJava);
+        assertTrue(failed.getOutput().contains(missingJava));
+
+        final BuildResult result1 = runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(result1.getOutput().contains("Installing 1 gems by JRuby 9.4.5.0 into the gem cache."));
+        final Path gemspec = projectDir.resolve("build/gems/lib/gems/specifications/embulk-input-gemmy-0.1.0.gemspec");
+        assertEquals(Arrays.asList("embulk-input-gemmy"), Files.readAllLines(gemspec, StandardCharsets.UTF_8));
+
+        // The gems are packaged in their own layer.
+        runGradle(projectDir, "packageEmbulkRunSetLayers");
+        final List<String> layers = Files.readAllLines(projectDir.resolve("build/embulkRunSetLayers/layers.tsv"), StandardCharsets.UTF_8);
+        assertTrue(layers.get(layers.size() - 2).startsWith("gems\t"));
+        final Path gemsLayer = projectDir.resolve("build/embulkRunSetLayers").resolve(layers.get(layers.size() - 2).split("\t")[1] + ".tar");
+        assertTrue(new String(Files.readAllBytes(gemsLayer), StandardCharsets.ISO_8859_1)
+                .contains("lib/gems/specifications/embulk-input-gemmy-0.1.0.gemspec"));
+
+        // The same gem set is installed from the gem cache without JRuby.
+        deleteFilesRecursively(projectDir.resolve("build/gems"));
+        final BuildResult result2 = runGradle(projectDir, "installEmbulkRunSet");
+        assertFalse(result2.getOutput().contains("Installing 1 gems by JRuby"));
+        assertTrue(result2.getOutput().contains("Installed 1 gems into "));
+        assertEquals(Arrays.asList("embulk-input-gemmy"), Files.readAllLines(gemspec, StandardCharsets.UTF_8));
+
+        // The gems installed by the plugin are deleted when no gem is configured anymore.
+        Files.delete(gemsDir.resolve("embulk-input-gemmy-0.1.0.gem"));
+        final BuildResult result3 = runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(result3.getOutput().contains("Deleted the gems no longer configured in "));
+        assertFalse(Files.exists(projectDir.resolve("build/gems/lib/gems")));
+    }
+
+    @Test
+    public void testPluginIndex(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "pluginIndex");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 2);
+        // Only "embulk-input-synthetic1" is an Embulk plugin with "Embulk-Plugin-Main-Class" in its manifest.
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Embulk-Plugin-Main-Class", "org.embulk.input.synthetic1.Synthetic1InputPlugin");
+        final Path jarPath = projectDir.resolve("repo").resolve(syntheticModulePath("embulk-input-synthetic1")).resolve("embulk-input-synthetic1-0.1.0.jar");
+        try (final JarOutputStream jar = new JarOutputStream(Files.newOutputStream(jarPath), manifest)) {
+            jar.putNextEntry(new JarEntry("org/embulk/input/synthetic1/Synthetic1InputPlugin.class"));
+            jar.closeEntry();
+        }
+
+        final BuildResult result = runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(result.getOutput().contains("Indexed 1 plugin types into "));
+
+        final Path embulkHome = projectDir.resolve("build/pluginIndex");
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(embulkHome.resolve("embulk.properties"))) {
+            properties.load(in);
+        }
+        assertEquals("maven:org.embulk.synthetic:synthetic1:0.1.0", properties.getProperty("plugins.input.synthetic1"));
+        assertEquals(null, properties.getProperty("plugins.input.synthetic2"));
+        assertFileDoesContain(embulkHome.resolve("embulk-plugins.tsv"),
+                "input\tsynthetic1\torg.embulk.synthetic:embulk-input-synthetic1:0.1.0\torg.embulk.input.synthetic1.Synthetic1InputPlugin");
+    }
+
+    @Test
+    public void testGenerations(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "generations");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 1);
+        final Path published = projectDir.resolve("published");
+        final Path jar = syntheticModulePath("embulk-input-synthetic1").resolve("embulk-input-synthetic1-0.1.0.jar");
+
+        final BuildResult result1 = runGradle(projectDir, "installEmbulkRunSet");
+        assertTrue(result1.getOutput().contains("Published embulkHome as the generation 1 in "));
+        assertEquals(Paths.get("1"), Files.readSymbolicLink(published.resolve("current")));
+
+        runGradle(projectDir, "-Prevision=2", "installEmbulkRunSet");
+        assertEquals(Paths.get("2"), Files.readSymbolicLink(published.resolve("current")));
+        assertFileDoesContain(published.resolve("1/embulk.properties"), "revision=1");
+        assertFileDoesContain(published.resolve("current/embulk.properties"), "revision=2");
+        // The unchanged artifact is shared by the generations, but not with embulkHome, which is only a staging directory.
+        assertTrue(Files.isSameFile(
+                published.resolve("1/lib/m2/repository").resolve(jar.toString()),
+                published.resolve("2/lib/m2/repository").resolve(jar.toString())));
+        assertFalse(Files.isSameFile(
+                projectDir.resolve("build/generations/lib/m2/repository").resolve(jar.toString()),
+                published.resolve("2/lib/m2/repository").resolve(jar.toString())));
+
+        // Only one previous generation is kept.
+        runGradle(projectDir, "-Prevision=3", "installEmbulkRunSet");
+        assertEquals(Paths.get("3"), Files.readSymbolicLink(published.resolve("current")));
+        assertTrue(Files.isDirectory(published.resolve("2")));
+        assertFalse(Files.exists(published.resolve("1")));
+
+        // The generations are never published into embulkHome.
+        final BuildResult failed = runGradleAndFail(projectDir, "-PgenerationsInHome=true", "installEmbulkRunSet");
+        assertTrue(failed.getOutput().contains("must not be in embulkHome"));
+    }
+
+    @Test
+    public void testGenerationsWithJruby(@TempDir Path tempDir) throws IOException {
+        final Path projectDir = prepareProjectDir(tempDir, "generations");
+        createSyntheticMavenRepository(projectDir.resolve("repo"), 1);
+        final Path published = projectDir.resolve("published");
+
+        // JRuby is specified relatively from "m2_repo" so that each generation works in its own directory.
+        runGradle(projectDir, "-Pjruby=relocatable", "installEmbulkRunSet");
+        assertEquals(Paths.get("1"), Files.readSymbolicLink(published.resolve("current")));
+        assertFileDoesContain(published.resolve("1/embulk.properties"), "jruby=maven\\:org.embulk.synthetic\\:synthetic-common\\:0.1.0");
+        assertTrue(Files.isRegularFile(published.resolve("1/lib/m2/repository")
+                .resolve(syntheticModulePath("synthetic-common")).resolve("synthetic-common-0.1.0.jar")));
+
+        final BuildResult failed = runGradleAndFail(projectDir, "-Pjruby=absolute", "installEmbulkRunSet");
+        assertTrue(failed.getOutput().contains("generations requires relocatableJruby with jruby."));
+        assertEquals(Paths.get("1"), Files.readSymbolicLink(published.resolve("current")));
+    }
 }
@@ -16,6 +16,7 @@
 
 package org.embulk.gradle.runset;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -23,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -31,8 +33,17 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 import java.util.stream.Stream;
+import javax.tools.ToolProvider;
 import org.gradle.testkit.runner.BuildResult;
 import org.gradle.testkit.runner.GradleRunner;
 
@@ -96,6 +107,22 @@ class Util {
         });
     }
 
+    static void deleteFilesRecursively(final Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
     static BuildResult runGradle(final Path projectDir, final String... args) {
         final ArrayList<String> argsList = new ArrayList<>();
         argsList.addAll(Arrays.asList(args));
@@ -109,6 +136,19 @@ class Util {
         return result;
     }
 
+    static BuildResult runGradleAndFail(final Path projectDir, final String... args) {
+        final ArrayList<String> argsList = new ArrayList<>();
+        argsList.addAll(Arrays.asList(args));
+        argsList.add("--stacktrace");
+        argsList.add("--info");
+        final BuildResult result = newGradleRunner(projectDir, argsList).buildAndFail();
+        System.out.println("Running 'gradle " + String.join(" ", argsList) + "' to fail :");
+        System.out.println("============================================================");
+        System.out.print(result.getOutput());
+        System.out.println("============================================================");
+        return result;
+    }
+
     static void assertFileDoesContain(final Path path, final String expected) throws IOException {
         try (final Stream<String> lines = Files.newBufferedReader(path).lines()) {
             final boolean found = lines.filter(actualLine -> {
@@ -136,8 +176,195 @@ class Util {
                 .withPluginClasspath();
     }
 
+    /**
+     * Creates a local file-based Maven repository with synthetic Embulk plugins.
+     *
+     * <p>The plugins are "org.embulk.synthetic:embulk-input-synthetic{N}:0.1.0" (N = 1 to numberOfPlugins), and each of them
+     * depends on a shared "org.embulk.synthetic:synthetic-common:0.1.0".
+     */
+    static void createSyntheticMavenRepository(final Path repositoryDir, final int numberOfPlugins) throws IOException {
+        createSyntheticMavenRepository(repositoryDir, numberOfPlugins, 0, 0);
+    }
+
+    /**
+     * Creates a local file-based Maven repository with synthetic Embulk plugins, transitive dependencies, and padded JAR files.
+     *
+     * <p>In addition to "synthetic-common", each plugin depends on "org.embulk.synthetic:synthetic-level1:0.1.0" if depth is positive.
+     * "synthetic-level{D}" depends on "synthetic-level{D+1}" until D reaches depth. Every JAR file is padded with jarSize bytes
+     * of pseudo-random data, which is always the same for the same module.
+     */
+    static void createSyntheticMavenRepository(
+            final Path repositoryDir, final int numberOfPlugins, final int depth, final int jarSize) throws IOException {
+        createSyntheticModule(repositoryDir, "synthetic-common", Collections.<String>emptyList(), jarSize);
+        for (int level = 1; level <= depth; level++) {
+            createSyntheticModule(
+                    repositoryDir,
+                    "synthetic-level" + level,
+                    level < depth ? syntheticDependencies("synthetic-level" + (level + 1)) : Collections.<String>emptyList(),
+                    jarSize);
+        }
+        for (int i = 1; i <= numberOfPlugins; i++) {
+            createSyntheticModule(
+                    repositoryDir,
+                    "embulk-input-synthetic" + i,
+                    depth > 0 ? syntheticDependencies("synthetic-common", "synthetic-level1") : syntheticDependencies("synthetic-common"),
+                    jarSize);
+        }
+    }
+
+    /**
+     * Creates another version of a synthetic module without dependencies in the local file-based Maven repository.
+     */
+    static void createSyntheticModule(final Path repositoryDir, final String artifactId, final String version) throws IOException {
+        createSyntheticModule(repositoryDir, artifactId, version, Collections.<String>emptyList(), 0);
+    }
+
+    /**
+     * Creates a synthetic module depending on other synthetic modules in the local file-based Maven repository.
+     *
+     * @param dependencies  "artifactId:version" of each dependency, where version can be a Maven version range
+     */
+    static void createSyntheticModuleWithDependencies(
+            final Path repositoryDir, final String artifactId, final String version, final String... dependencies) throws IOException {
+        createSyntheticModule(repositoryDir, artifactId, version, syntheticDependencies(dependencies), 0);
+    }
+
+    static Path syntheticModulePath(final String artifactId) {
+        return syntheticModulePath(artifactId, SYNTHETIC_VERSION);
+    }
+
+    static Path syntheticModulePath(final String artifactId, final String version) {
+        return Paths.get("org", "embulk", "synthetic", artifactId, version);
+    }
+
+    /**
+     * Creates a module in the local file-based Maven repository with its POM file, and its JAR file unless it is POM-only.
+     *
+     * @param coordinates  "group:artifactId:version" of the module
+     * @param dependencies  "group:artifactId:version", or "group:artifactId:version:classifier", of each dependency
+     * @param jarEntries  the names and the contents of the entries in the JAR file, or {@code null} for a POM-only module
+     * @return the directory of the module
+     */
+    static Path createModule(
+            final Path repositoryDir,
+            final String coordinates,
+            final List<String> dependencies,
+            final Map<String, byte[]> jarEntries) throws IOException {
+        final String[] parts = coordinates.split(":");
+        final Path moduleDir = Files.createDirectories(repositoryDir.resolve(parts[0].replace('.', '/')).resolve(parts[1]).resolve(parts[2]));
+        final String baseName = parts[1] + "-" + parts[2];
+        writePom(moduleDir.resolve(baseName + ".pom"), parts[0], parts[1], parts[2], jarEntries == null ? "pom" : "jar", dependencies);
+        if (jarEntries != null) {
+            try (final JarOutputStream jar = new JarOutputStream(Files.newOutputStream(moduleDir.resolve(baseName + ".jar")))) {
+                for (final Map.Entry<String, byte[]> entry : jarEntries.entrySet()) {
+                    jar.putNextEntry(new JarEntry(entry.getKey()));
+                    jar.write(entry.getValue());
+                    jar.closeEntry();
+                }
+            }
+        }
+        return moduleDir;
+    }
+
+    /**
+     * Returns JAR entries whose contents are their own names, in the order.
+     */
+    static Map<String, byte[]> jarEntriesOfNames(final String... names) {
+        final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+        for (final String name : names) {
+            entries.put(name, name.getBytes(StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+
+    /**
+     * Compiles a Java source file by the system Java compiler, and returns the class file next to it.
+     */
+    static byte[] compileClass(final Path sourceFile) throws IOException {
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, sourceFile.toString()));
+        final String fileName = sourceFile.getFileName().toString();
+        return Files.readAllBytes(sourceFile.resolveSibling(fileName.substring(0, fileName.length() - ".java".length()) + ".class"));
+    }
+
+    private static void writePom(
+            final Path pomFile,
+            final String group,
+            final String artifactId,
+            final String version,
+            final String packaging,
+            final List<String> dependencies) throws IOException {
+        final StringBuilder pom = new StringBuilder();
+        pom.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        pom.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+        pom.append("  <modelVersion>4.0.0</modelVersion>\n");
+        pom.append("  <groupId>" + group + "</groupId>\n");
+        pom.append("  <artifactId>" + artifactId + "</artifactId>\n");
+        pom.append("  <version>" + version + "</version>\n");
+        pom.append("  <packaging>" + packaging + "</packaging>\n");
+        if (!dependencies.isEmpty()) {
+            pom.append("  <dependencies>\n");
+            for (final String dependency : dependencies) {
+                final String[] parts = dependency.split(":");
+                pom.append("    <dependency>\n");
+                pom.append("      <groupId>" + parts[0] + "</groupId>\n");
+                pom.append("      <artifactId>" + parts[1] + "</artifactId>\n");
+                pom.append("      <version>" + parts[2] + "</version>\n");
+                if (parts.length > 3) {
+                    pom.append("      <classifier>" + parts[3] + "</classifier>\n");
+                }
+                pom.append("    </dependency>\n");
+            }
+            pom.append("  </dependencies>\n");
+        }
+        pom.append("</project>\n");
+        Files.write(pomFile, pom.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> syntheticDependencies(final String... artifactIds) {
+        final ArrayList<String> dependencies = new ArrayList<>();
+        for (final String artifactId : artifactIds) {
+            dependencies.add(SYNTHETIC_GROUP + ":" + (artifactId.indexOf(':') < 0 ? artifactId + ":" + SYNTHETIC_VERSION : artifactId));
+        }
+        return dependencies;
+    }
+
+    private static void createSyntheticModule(
+            final Path repositoryDir, final String artifactId, final List<String> dependencies, final int jarSize) throws IOException {
+        createSyntheticModule(repositoryDir, artifactId, SYNTHETIC_VERSION, dependencies, jarSize);
+    }
+
+    private static void createSyntheticModule(
+            final Path repositoryDir,
+            final String artifactId,
+            final String version,
+            final List<String> dependencies,
+            final int jarSize) throws IOException {
+        final Path moduleDir = Files.createDirectories(repositoryDir.resolve(syntheticModulePath(artifactId, version)));
+        final String baseName = artifactId + "-" + version;
+        writePom(moduleDir.resolve(baseName + ".pom"), SYNTHETIC_GROUP, artifactId, version, "jar", dependencies);
+
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (final JarOutputStream jar = new JarOutputStream(Files.newOutputStream(moduleDir.resolve(baseName + ".jar")), manifest)) {
+            jar.putNextEntry(new JarEntry("org/embulk/synthetic/" + artifactId.replace('-', '_') + ".txt"));
+            jar.write(artifactId.getBytes(StandardCharsets.UTF_8));
+            jar.closeEntry();
+            if (jarSize > 0) {
+                final byte[] padding = new byte[jarSize];
+                new Random(artifactId.hashCode()).nextBytes(padding);
+                jar.putNextEntry(new JarEntry("org/embulk/synthetic/" + artifactId.replace('-', '_') + ".bin"));
+                jar.write(padding);
+                jar.closeEntry();
+            }
+        }
+    }
+
     static JarURLConnection openJarUrlConnection(final Path jarPath) throws IOException {
         final URL jarUrl = new URL("jar:" + jarPath.toUri().toURL().toString() + "!/");
         return (JarURLConnection) jarUrl.openConnection();
     }
+
+    private static final String SYNTHETIC_GROUP = "org.embulk.synthetic";
+
+    private static final String SYNTHETIC_VERSION = "0.1.0";
 }
@@ -0,0 +1,18 @@
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class StubMain {
+    public static void main(final String[] args) throws Exception {
+        // The plugin is loaded in its own class loader from the Embulk home, as Embulk does.
+        final Path plugin = Paths.get(System.getenv("EMBULK_HOME"),
+                "lib/m2/repository/org/embulk/synthetic/embulk-input-cds/0.1.0/embulk-input-cds-0.1.0.jar");
+        if (Files.isRegularFile(plugin)) {
+            final URLClassLoader loader = new URLClassLoader(new URL[] { plugin.toUri().toURL() }, StubMain.class.getClassLoader());
+            Class.forName("CdsPlugin", true, loader);
+        }
+        System.out.println("Hello from " + String.join(" ", args) + " with " + System.getenv("EMBULK_HOME"));
+    }
+}